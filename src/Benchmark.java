@@ -0,0 +1,154 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+import ilog.concert.IloException;
+
+
+/**
+ * Class used to compare variants of the MILP model by creating the adversarial examples of the
+ * test images of every DNN using every variant and writing the performance statistics of the variants into a csv file
+ * @author Tim Tjhay (495230tt)
+ */
+public class Benchmark {
+	
+	/**
+	 * Interface used to create the model of a variant
+	 */
+	public interface ModelFactory {
+		/**
+		 * Method used to create the model of a variant, which is used for all images of the DNN
+		 * @param dnn				The DNN
+		 * @param maxDeviation		The maximum deviation from the original image
+		 * @return					The model
+		 * @throws IloException
+		 */
+		MILPAdversarial create(DNN dnn, double maxDeviation) throws IloException;
+	}
+	
+	/**
+	 * Class used to describe a variant of the MILP model
+	 */
+	public static class Variant {
+		private String name;
+		private boolean tightenBounds;
+		private ModelFactory factory;
+		
+		/**
+		 * Initializes a variant
+		 * @param name				The name of the variant that is written to the file
+		 * @param tightenBounds		If the model uses the tightened bounds instead of the initial bounds(base model)
+		 * @param factory			Creates the model of the variant
+		 */
+		public Variant(String name, boolean tightenBounds, ModelFactory factory) {
+			this.name = name;
+			this.tightenBounds = tightenBounds;
+			this.factory = factory;
+		}
+	}
+	
+	/**
+	 * Method used to create the adversarial examples for every DNN using every variant
+	 * and write a line with the statistics of every variant per DNN to a csv file
+	 * @param filename			Name of the file the statistics are written to
+	 * @param architectures		The architectures of the DNNs
+	 * @param variants			The variants that are compared
+	 * @param totalNodes		If all processed nodes should be counted instead of the node of the incumbent
+	 * @throws IloException
+	 * @throws IOException
+	 */
+	public static void run(String filename, int[][] architectures, List<Variant> variants, boolean totalNodes) throws IloException, IOException {
+		// open a writer to write the performance statistics
+		BufferedWriter w = new BufferedWriter(new FileWriter(filename));
+		
+		// keep track of how many architectures have been tested
+		int arch = 1;
+		int nArchs = architectures.length;
+		
+		// for all DNNs:
+		for (int[] architecture: architectures) {
+			// get the name of the file containing the weights
+			String weightsFile = "input//weights//";
+			String archString = "";
+			for (int n_k: architecture) {
+				archString += n_k + "_";
+			}
+			archString = archString.substring(0, archString.length()-1);
+			weightsFile += archString + "//weights.csv";
+			
+			// initialize the DNN with the initial bounds and the DNN whose bounds are tightened once,
+			// as every variant uses the same bounds
+			DNN baseDNN = new DNN(weightsFile, architecture.length + 1);
+			DNN dnn = null;
+			for (Variant variant: variants) {
+				if (variant.tightenBounds && dnn == null) {
+					dnn = new DNN(weightsFile, architecture.length + 1);
+					dnn.setBoundCache(new BoundCache("output//boundCache"));
+					dnn.calculateBounds(false);
+				}
+			}
+			
+			// get the original images and their classifications
+			String testdata = "input//testdata//" + archString;
+			double[][] images = Main.readImages(testdata + "//images.csv");
+			int[] digits = Main.readClass(testdata + "//classifications.csv");
+			
+			// write which architecture the performance statistics belong to
+			w.write(arch + ",");
+			// for every variant:
+			for (int h=0; h < variants.size(); h++) {
+				Variant variant = variants.get(h);
+				
+				// initialize performance measures
+				int nSolved = 0;
+				double totalGap = 0;
+				double totalTime = 0;
+				double aveNodes = 0;
+				double totalObj = 0;
+				
+				// initialize the MILP model of the variant once for all images
+				double maxDeviation = 1;
+				MILPAdversarial advExmplModel = variant.factory.create(variant.tightenBounds ? dnn : baseDNN, maxDeviation);
+				
+				// for all images:
+				for (int i=0; i < images.length; i++) {
+					double[] input = images[i];
+					int targetDigit = (digits[i] + 5) % 10;
+					
+					// print the progress
+					System.out.println(arch + "/" + nArchs + ": " + (i+1) + "/" + images.length + "	(" + (h+1) + "/" + variants.size() + ")	" + digits[i] + " to " + targetDigit + "	");
+					
+					// create the adversarial example by solving the MILP and keep track of time needed
+					long start = System.currentTimeMillis();
+					boolean solved = advExmplModel.solveFor(input, targetDigit);
+					long time = System.currentTimeMillis()-start;
+					
+					// update performance measures
+					totalTime += (double) time / 1000;
+					int nodes = totalNodes ? advExmplModel.getTotalNodes() : advExmplModel.getNodes();
+					aveNodes += (double) nodes/images.length;
+					totalGap += advExmplModel.getGap();
+					
+					if (solved) {
+						nSolved++;
+						totalObj += advExmplModel.getObj();
+					}
+				}
+				// cleanup the model
+				advExmplModel.cleanup();
+				
+				// write the variant and the statistics to the file and print it as well
+				String stats = variant.name + "," +  nSolved + "," + totalGap + "," + aveNodes + "," + totalTime/images.length + "," + totalObj/nSolved;
+				w.write(stats + ",");
+				System.out.println(stats);
+			}
+			// go to the next line in the file for the next DNN
+			w.write("\n");
+			arch++;
+		}
+		// close the writer
+		w.close();
+	}
+	
+}
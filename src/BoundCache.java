@@ -0,0 +1,159 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Class used to store the tightened bounds of a DNN on disk, so they do not have to be calculated again
+ * when the same weights, bounds on the input layer and bound tightening method are used
+ * @author Tim Tjhay (495230tt)
+ */
+public class BoundCache {
+	private File directory;
+	
+	/**
+	 * Initializes the cache using the directory the bounds are stored in
+	 * @param directory		Name of the directory the bounds are stored in
+	 */
+	public BoundCache(String directory) {
+		this.directory = new File(directory);
+		this.directory.mkdirs();
+	}
+	
+	/**
+	 * Method used to set the bounds of the DNN to the stored bounds if they exist
+	 * @param dnn		The DNN whose bounds should be set
+	 * @param mode		Description of the method used to tighten the bounds
+	 * @return			If stored bounds were found and set
+	 * @throws IOException
+	 */
+	public boolean load(DNN dnn, String mode) throws IOException {
+		File file = getFile(dnn, mode);
+		if (file == null || !file.exists()) {
+			return false;
+		}
+		
+		// every layer except the input layer is stored as four lines (xUB, sUB, xLB, sLB)
+		List<String> lines = Files.readAllLines(file.toPath());
+		Layer[] layers = dnn.getLayers();
+		if (lines.size() != 4 * (layers.length - 1)) {
+			return false;
+		}
+		double[][] bounds = new double[lines.size()][];
+		for (int i=0; i < lines.size(); i++) {
+			bounds[i] = Arrays.stream(lines.get(i).split(",")).mapToDouble(Double::parseDouble).toArray();
+			if (bounds[i].length != layers[i/4 + 1].getN()) {
+				return false;
+			}
+		}
+		
+		// set the bounds of the layers
+		for (int k=1; k < layers.length; k++) {
+			layers[k].setUpperBoundsX(bounds[4*(k-1)]);
+			layers[k].setUpperBoundsS(bounds[4*(k-1) + 1]);
+			layers[k].setLowerBoundsX(bounds[4*(k-1) + 2]);
+			layers[k].setLowerBoundsS(bounds[4*(k-1) + 3]);
+		}
+		return true;
+	}
+	
+	/**
+	 * Method used to store the bounds of the DNN, the bounds are first written to a temporary
+	 * file that is then moved, so other runs never read a partially written file
+	 * @param dnn		The DNN whose bounds should be stored
+	 * @param mode		Description of the method used to tighten the bounds
+	 * @throws IOException
+	 */
+	public void store(DNN dnn, String mode) throws IOException {
+		File file = getFile(dnn, mode);
+		if (file == null) {
+			return;
+		}
+		
+		// write the bounds to a temporary file
+		File tmp = File.createTempFile(file.getName(), ".tmp", this.directory);
+		BufferedWriter w = new BufferedWriter(new FileWriter(tmp));
+		Layer[] layers = dnn.getLayers();
+		for (int k=1; k < layers.length; k++) {
+			writeBounds(w, layers[k].getUpperBoundsX());
+			writeBounds(w, layers[k].getUpperBoundsS());
+			writeBounds(w, layers[k].getLowerBoundsX());
+			writeBounds(w, layers[k].getLowerBoundsS());
+		}
+		w.close();
+		
+		// replace the stored bounds in a single step
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	/**
+	 * Method used to write an array of bounds as a line in a csv file
+	 * @param w			The writer used to write the bounds
+	 * @param bounds	The bounds
+	 * @throws IOException
+	 */
+	private static void writeBounds(BufferedWriter w, double[] bounds) throws IOException {
+		for (int i=0; i < bounds.length; i++) {
+			w.write(Double.toString(bounds[i]));
+			if (i < bounds.length - 1) {
+				w.write(",");
+			}
+		}
+		w.write("\n");
+	}
+	
+	/**
+	 * Method that returns the file the bounds of the DNN are stored in, which is named after
+	 * a hash of the contents of the weights file, the bounds on the input layer and the mode
+	 * @param dnn		The DNN
+	 * @param mode		Description of the method used to tighten the bounds
+	 * @return			The file the bounds are stored in(null if the DNN was not read from a file)
+	 * @throws IOException
+	 */
+	private File getFile(DNN dnn, String mode) throws IOException {
+		if (dnn.getWeightsFile() == null) {
+			return null;
+		}
+		
+		Layer inputLayer = dnn.getLayers()[0];
+		String key = hash(Files.readAllBytes(new File(dnn.getWeightsFile()).toPath()),
+				Arrays.toString(inputLayer.getLowerBoundsX()).getBytes(),
+				Arrays.toString(inputLayer.getUpperBoundsX()).getBytes(),
+				mode.getBytes());
+		return new File(this.directory, "bounds" + key + ".csv");
+	}
+	
+	/**
+	 * Method that returns the SHA-256 hash of a number of byte arrays, which is used
+	 * to name files after their contents so different contents get different names
+	 * @param parts		The byte arrays
+	 * @return			The hash in hexadecimal
+	 */
+	public static String hash(byte[]... parts) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		for (byte[] part: parts) {
+			digest.update(part);
+		}
+		
+		// convert the hash to a hexadecimal string
+		StringBuilder key = new StringBuilder();
+		for (byte b: digest.digest()) {
+			key.append(String.format("%02x", b));
+		}
+		return key.toString();
+	}
+	
+}
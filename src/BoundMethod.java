@@ -0,0 +1,35 @@
+/**
+ * Enum used to choose how the bounds of the neurons in a layer are tightened
+ * @author Tim Tjhay (495230tt)
+ */
+public enum BoundMethod {
+	/**
+	 * Only use interval arithmetic over the bounds of the previous layer
+	 */
+	INTERVAL,
+	
+	/**
+	 * Use the linear relaxation of the activation functions of the previous layers
+	 * that is substituted back to the input layer
+	 */
+	SYMBOLIC,
+	
+	/**
+	 * Use the MILP for the unstable neurons with a time limit of 1 second(weaker improved model)
+	 */
+	MILP_TIME_LIMIT,
+	
+	/**
+	 * Use the MILP for the unstable neurons without a time limit(improved model)
+	 */
+	MILP;
+	
+	/**
+	 * Method that returns if the MILP is used to tighten the bounds
+	 * @return	If the MILP is used
+	 */
+	public boolean usesMILP() {
+		return this == MILP_TIME_LIMIT || this == MILP;
+	}
+	
+}
@@ -0,0 +1,41 @@
+/**
+ * Enum used to choose how the z variables are ranked when branching priorities are
+ * set using the activation pattern of the original image, a higher score is branched on first
+ * @author Tim Tjhay (495230tt)
+ */
+public enum BranchingRank {
+	/**
+	 * Branch on the neurons in earlier layers first, as they determine the inputs of the later layers
+	 */
+	DEPTH,
+	
+	/**
+	 * Branch on the neurons with the widest bounds first
+	 */
+	WIDTH,
+	
+	/**
+	 * Branch on the neurons whose input for the original image is closest to 0 relative 
+	 * to the width of their bounds first, as they are the most likely to switch
+	 */
+	MARGIN;
+	
+	/**
+	 * Method that returns the score of a neuron
+	 * @param layer		The layer of the neuron
+	 * @param j			The index of the neuron
+	 * @param y			The input of the neuron for the original image
+	 * @return			The score of the neuron
+	 */
+	public double getScore(Layer layer, int j, double y) {
+		double width = layer.getUpperBoundsX()[j] + layer.getUpperBoundsS()[j];
+		if (this == DEPTH) {
+			return -layer.getK();
+		}
+		if (this == WIDTH) {
+			return width;
+		}
+		return -Math.abs(y) / width;
+	}
+	
+}
@@ -1,7 +1,15 @@
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import ilog.concert.IloException;
 
@@ -14,6 +22,14 @@ public class DNN {
 	private Layer[] layers;
 	private int K;
 	
+	private String weightsFile;
+	private BoundCache boundCache;
+	private Map<String,DNN> localDNNs;
+	
+	private DNN original;
+	private int[] originalLayers;
+	private int[][] originalNeurons;
+	
 	/**
 	 * Initializes the DNN by reading the weights from the file
 	 * @param filename	Name of the file containing the weights
@@ -24,8 +40,10 @@ public class DNN {
 		// create the layers
 		this.layers = new Layer[K + 1];
 		this.K = K;
+		this.localDNNs = new HashMap<>();
 		
 		// read the weights
+		this.weightsFile = filename;
 		readWeights(filename);
 	}
 	
@@ -37,6 +55,7 @@ public class DNN {
 		this.layers = layers;
 		// exclude the input layer
 		this.K = layers.length - 1;
+		this.localDNNs = new HashMap<>();
 	}
 	
 	/**
@@ -55,57 +74,718 @@ public class DNN {
 		return this.layers;
 	}
 	
+	/**
+	 * Method that returns the DNN consisting of the first k layers(excluding the input layer), 
+	 * which shares the layers with this DNN
+	 * @param k		The number of layers in the sub network
+	 * @return		The sub network
+	 */
+	public DNN getSubNetwork(int k) {
+		return new DNN(Arrays.copyOf(this.layers, k+1));
+	}
+	
+	/**
+	 * Method that returns the name of the file the weights were read from
+	 * @return	Name of the file containing the weights(null if the DNN was created using layers)
+	 */
+	public String getWeightsFile() {
+		return this.weightsFile;
+	}
+	
+	/**
+	 * Method that returns a name for the DNN that is the same every run, consisting of the 
+	 * number of neurons in every layer after the input layer and the SHA-256 hash of the weights and biases
+	 * @return	The name of the DNN
+	 */
+	public String getName() {
+		String name = "";
+		byte[][] parts = new byte[2 * (this.layers.length-1)][];
+		for (int k=1; k < this.layers.length; k++) {
+			name += this.layers[k].getN() + "_";
+			parts[2*(k-1)] = Arrays.deepToString(this.layers[k].getWeights()).getBytes();
+			parts[2*(k-1) + 1] = Arrays.toString(this.layers[k].getBias()).getBytes();
+		}
+		return name + BoundCache.hash(parts);
+	}
+	
+	/**
+	 * Method used to set the cache that stores the calculated bounds on disk, when the cache
+	 * contains bounds for the same weights, input bounds and method they are used instead. 
+	 * Bounds calculated with a time limit are not stored, as they depend on how fast the solves are
+	 * @param boundCache	The cache(null stops using a cache)
+	 */
+	public void setBoundCache(BoundCache boundCache) {
+		this.boundCache = boundCache;
+	}
+	
 	/**
 	 * Method used to calculate and set the bounds of the neurons
 	 * @param timeLimit		If a time limit should be imposed on the bound tightening(weaker improved model)
-	 * @throws CloneNotSupportedException
 	 * @throws IloException
+	 * @throws IOException
+	 */
+	public void calculateBounds(boolean timeLimit) throws IloException, IOException {
+		calculateBounds(timeLimit, 1);
+	}
+	
+	/**
+	 * Method used to calculate and set the bounds of the neurons using a pool of workers.
+	 * The neurons of a layer only depend on the bounds of the previous layers, so the neurons
+	 * of a layer are divided over the workers and every layer waits until the previous one is done.
+	 * Every worker encodes the previous layers once and then goes through its neurons
+	 * @param timeLimit		If a time limit should be imposed on the bound tightening(weaker improved model)
+	 * @param nWorkers		The number of neurons that are tightened at the same time
+	 * @throws IloException
+	 * @throws IOException
+	 */
+	public void calculateBounds(boolean timeLimit, int nWorkers) throws IloException, IOException {
+		// use the same MILP for every layer
+		BoundMethod[] methods = new BoundMethod[this.K];
+		Arrays.fill(methods, timeLimit ? BoundMethod.MILP_TIME_LIMIT : BoundMethod.MILP);
+		calculateBounds(methods, nWorkers);
+	}
+	
+	/**
+	 * Method used to calculate and set the bounds of the neurons using a different method for every layer
+	 * @param methods		The method used for every layer(excluding the input layer)
+	 * @throws IloException
+	 * @throws IOException
+	 */
+	public void calculateBounds(BoundMethod[] methods) throws IloException, IOException {
+		calculateBounds(methods, 1);
+	}
+	
+	/**
+	 * Method used to calculate and set the bounds of the neurons using a different method for every layer
+	 * and a pool of workers for the layers that use the MILP
+	 * @param methods		The method used for every layer(excluding the input layer)
+	 * @param nWorkers		The number of neurons that are tightened at the same time
+	 * @throws IloException
+	 * @throws IOException
+	 */
+	public void calculateBounds(BoundMethod[] methods, int nWorkers) throws IloException, IOException {
+		// the bounds around images depend on the current bounds
+		this.localDNNs.clear();
+		
+		// use the stored bounds if they were already calculated using the same method, the bounds of a 
+		// method with a time limit depend on how fast the solves are so these do not use the cache
+		String mode = Arrays.toString(methods);
+		boolean useCache = this.boundCache != null && !Arrays.asList(methods).contains(BoundMethod.MILP_TIME_LIMIT);
+		if (useCache && this.boundCache.load(this, mode)) {
+			return;
+		}
+		
+		// with a single worker solve the models one after another and let cplex use all threads,
+		// otherwise split the threads of the machine over the workers
+		ExecutorService pool = null;
+		int threads = 0;
+		if (nWorkers > 1) {
+			pool = Executors.newFixedThreadPool(nWorkers);
+			threads = Math.max(1, Runtime.getRuntime().availableProcessors() / nWorkers);
+		}
+		
+		try {
+			// for all layers except the input layer:
+			for (int k=1; k < this.layers.length; k++) {
+				// the bound model encodes the previous layers once and goes through the neurons of this layer,
+				// the layers are not changed while the bound models are used so they can be shared
+				DNN subNetwork = getSubNetwork(k);
+				Layer layer = this.layers[k];
+				
+				// calculate the bounds on the input of the neurons without the MILP, the linear relaxation 
+				// is used by all methods except interval arithmetic as it does not cost much time
+				BoundMethod method = methods[k-1];
+				double[][] inputBounds = calculateInputBounds(k, method != BoundMethod.INTERVAL);
+				
+				setInputBounds(k, inputBounds);
+				
+				// only the unstable neurons need to be tightened using the MILP
+				List<Integer> unstable = new ArrayList<>();
+				for (int j=0; j < layer.getN(); j++) {
+					if (method.usesMILP() && layer.isUnstable(j)) {
+						unstable.add(j);
+					}
+				}
+				boolean timeLimit = method == BoundMethod.MILP_TIME_LIMIT;
+				
+				// divide the unstable neurons of the layer over the workers, every worker builds a single model
+				int nTasks = Math.min(Math.max(nWorkers, 1), unstable.size());
+				List<Callable<double[][]>> tasks = new ArrayList<>();
+				for (int t=0; t < nTasks; t++) {
+					List<Integer> neurons = new ArrayList<>();
+					for (int i=t; i < unstable.size(); i += nTasks) {
+						neurons.add(unstable.get(i));
+					}
+					tasks.add(createBoundsTask(subNetwork, neurons, timeLimit, threads));
+				}
+				
+				// get and store the bounds, all neurons of the layer are finished before 
+				// the next layer is started
+				List<double[][]> bounds = ExperimentRunner.runTasks(pool, tasks);
+				for (double[][] boundsTask: bounds) {
+					for (int j=0; j < layer.getN(); j++) {
+						if (boundsTask[j] != null) {
+							// the bounds of the MILP can be weaker if the time limit was reached
+							layer.getUpperBoundsX()[j] = Math.min(layer.getUpperBoundsX()[j], boundsTask[j][0]);
+							layer.getUpperBoundsS()[j] = Math.min(layer.getUpperBoundsS()[j], boundsTask[j][1]);
+							layer.getLowerBoundsX()[j] = Math.max(layer.getLowerBoundsX()[j], boundsTask[j][2]);
+							layer.getLowerBoundsS()[j] = Math.max(layer.getLowerBoundsS()[j], boundsTask[j][3]);
+						}
+					}
+				}
+//				System.out.println(k + " " + Arrays.toString(layer.getUpperBoundsX()));
+//				System.out.println(k + " " + Arrays.toString(layer.getUpperBoundsS()));
+			}
+		}
+		finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+		
+		// store the bounds so they can be used again, the bounds of a stopped run can be weaker so they are not stored
+		if (useCache && !RunControl.isStopped()) {
+			this.boundCache.store(this, mode);
+		}
+	}
+	
+	/**
+	 * Method used to calculate and set the bounds of the neurons within a total time budget. The bounds of 
+	 * all layers are first calculated without the MILP, after which the MILP refines the unstable neuron with
+	 * the highest priority until the budget runs out. Every improvement is set in the layer right away 
+	 * and passed on to the following layers, so the bounds can be used whenever the budget runs out.
+	 * The solves of a single neuron are limited, so the budget is spread over the neurons with the highest priorities.
+	 * Which neurons are refined depends on how fast the solves are, so these bounds are not stored in the cache
+	 * @param budget			The total time in seconds that can be used for the bound tightening
+	 * @param neuronLimit		The maximum time in seconds used to refine a single neuron
+	 * @throws IloException
+	 * @throws IOException
 	 */
-	public void calculateBounds(boolean timeLimit) throws CloneNotSupportedException, IloException {
-		// for all layers except the input layer:
+	public void calculateBoundsWithBudget(double budget, double neuronLimit) throws IloException, IOException {
+		// the bounds around images depend on the current bounds
+		this.localDNNs.clear();
+		
+		long deadline = System.currentTimeMillis() + (long) (budget * 1000);
+		
+		// calculate the bounds of all layers without the MILP
 		for (int k=1; k < this.layers.length; k++) {
-			// create an array to store the previous layers
-			Layer[] layers = new Layer[k+1];
-			
-			// add copies of the previous layers
-			for (int i=0; i < k; i++) {
-				layers[i] = this.layers[i].clone();
+			setInputBounds(k, calculateInputBounds(k, true));
+		}
+		
+		// keep track of the neurons that have been refined
+		boolean[][] refined = new boolean[this.layers.length][];
+		for (int k=1; k < this.layers.length; k++) {
+			refined[k] = new boolean[this.layers[k].getN()];
+		}
+		
+		// the bound model of a layer is built when it is first needed and 
+		// built again when the bounds of a previous layer have changed
+		MILPBounds[] models = new MILPBounds[this.layers.length];
+		try {
+			double remaining = budget;
+			while (remaining > 0) {
+				// get the neuron with the highest priority
+				int[] neuron = getPriorityNeuron(refined);
+				if (neuron == null) {
+					break;
+				}
+				int k = neuron[0];
+				int j = neuron[1];
+				refined[k][j] = true;
+				
+				if (models[k] == null) {
+					models[k] = new MILPBounds(getSubNetwork(k), false);
+				}
+				// split the time of the neuron over the solves for x and s
+				models[k].setTimeLimit(Math.min(remaining, neuronLimit) / 2);
+				double[] bounds = models[k].getBounds(j);
+				
+				// set the bounds if they are tighter
+				Layer layer = this.layers[k];
+				if (bounds[0] < layer.getUpperBoundsX()[j] || bounds[1] < layer.getUpperBoundsS()[j]) {
+					layer.getUpperBoundsX()[j] = Math.min(layer.getUpperBoundsX()[j], bounds[0]);
+					layer.getUpperBoundsS()[j] = Math.min(layer.getUpperBoundsS()[j], bounds[1]);
+					layer.getLowerBoundsX()[j] = Math.max(layer.getLowerBoundsX()[j], bounds[2]);
+					layer.getLowerBoundsS()[j] = Math.max(layer.getLowerBoundsS()[j], bounds[3]);
+					
+					// pass the improvement on to the following layers
+					for (int m=k+1; m < this.layers.length; m++) {
+						intersectBounds(m, calculateInputBounds(m, true));
+						if (models[m] != null) {
+							models[m].cleanup();
+							models[m] = null;
+						}
+					}
+				}
+				remaining = (double) (deadline - System.currentTimeMillis()) / 1000;
 			}
-			
+		}
+		finally {
+			for (MILPBounds model: models) {
+				if (model != null) {
+					model.cleanup();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Method that returns the unstable neuron that has not been refined yet whose bounds are the 
+	 * most important to tighten. The priority of a neuron is the width of its bounds times one plus 
+	 * the number of unstable neurons in the following layers, as these all depend on its bounds
+	 * @param refined	Which neurons have already been refined
+	 * @return			The index of the layer and the index of the neuron(null if there is none left)
+	 */
+	private int[] getPriorityNeuron(boolean[][] refined) {
+		// count the unstable neurons after every layer
+		int[] nUnstableAfter = new int[this.layers.length];
+		for (int k=this.layers.length-2; k > 0; k--) {
+			nUnstableAfter[k] = nUnstableAfter[k+1];
+			for (int j=0; j < this.layers[k+1].getN(); j++) {
+				if (this.layers[k+1].isUnstable(j)) {
+					nUnstableAfter[k]++;
+				}
+			}
+		}
+		
+		int[] neuron = null;
+		double maxPriority = 0;
+		for (int k=1; k < this.layers.length; k++) {
 			Layer layer = this.layers[k];
+			for (int j=0; j < layer.getN(); j++) {
+				if (refined[k][j] || !layer.isUnstable(j)) {
+					continue;
+				}
+				double width = layer.getUpperBoundsX()[j] + layer.getUpperBoundsS()[j];
+				double priority = width * (1 + nUnstableAfter[k]);
+				if (priority > maxPriority) {
+					maxPriority = priority;
+					neuron = new int[] {k, j};
+				}
+			}
+		}
+		return neuron;
+	}
+	
+	/**
+	 * Method that returns a copy of the DNN with bounds that only hold for inputs that deviate at most
+	 * maxDeviation from the image. These bounds are calculated without the MILP and are at least as tight
+	 * as the bounds of this DNN, the copies are stored so every image is only bounded once
+	 * @param input			The image
+	 * @param maxDeviation	The maximum deviation of every pixel from the image
+	 * @return				The DNN with bounds around the image
+	 */
+	public synchronized DNN getLocalDNN(double[] input, double maxDeviation) {
+		String key = maxDeviation + Arrays.toString(input);
+		DNN local = this.localDNNs.get(key);
+		if (local != null) {
+			return local;
+		}
+		
+		// use views of the layers so the bounds of this DNN are not changed
+		Layer[] layers = new Layer[this.layers.length];
+		for (int k=0; k < layers.length; k++) {
+			layers[k] = this.layers[k].getView();
+		}
+		local = new DNN(layers);
+		
+		// only allow inputs within the maximum deviation of the image
+		double[] x_0LB = layers[0].getLowerBoundsX();
+		double[] x_0UB = layers[0].getUpperBoundsX();
+		for (int i=0; i < input.length; i++) {
+			x_0LB[i] = Math.max(x_0LB[i], input[i] - maxDeviation);
+			x_0UB[i] = Math.min(x_0UB[i], input[i] + maxDeviation);
+		}
+		
+		// tighten the bounds of the layers one after another
+		for (int k=1; k < layers.length; k++) {
+			local.intersectBounds(k, local.calculateInputBounds(k, true));
+		}
+		
+		this.localDNNs.put(key, local);
+		return local;
+	}
+	
+	/**
+	 * Method that returns an equivalent DNN without the neurons that are never active and without the
+	 * hidden layers whose remaining neurons are always active. A neuron that is never active only passes 
+	 * 0 to the next layer, so it is removed with its weights in the next layer. A hidden layer in which 
+	 * every neuron is always active is linear, so it is merged into the next layer as W_k+1*W_k and 
+	 * W_k+1*b_k + b_k+1. The input and output layer keep all neurons, so the reduced DNN can be used 
+	 * in place of this DNN for inputs within the bounds of the input layer
+	 * @return	The reduced DNN
+	 */
+	public DNN reduce() {
+		// get the neurons of every layer that are kept
+		int[][] kept = new int[this.layers.length][];
+		for (int k=0; k < this.layers.length; k++) {
+			List<Integer> neurons = new ArrayList<>();
+			for (int j=0; j < this.layers[k].getN(); j++) {
+				if (k == 0 || k == this.K || !this.layers[k].isStableInactive(j)) {
+					neurons.add(j);
+				}
+			}
+			kept[k] = neurons.stream().mapToInt(Integer::intValue).toArray();
+		}
+		
+		List<Layer> reduced = new ArrayList<>();
+		List<Integer> layerIndices = new ArrayList<>();
+		List<int[]> neuronIndices = new ArrayList<>();
+		reduced.add(this.layers[0].getView());
+		layerIndices.add(0);
+		neuronIndices.add(kept[0]);
+		
+		// the layer that is being built, which can still be merged into the next layer
+		Layer current = null;
+		for (int k=1; k < this.layers.length; k++) {
+			Layer layer = getReducedLayer(k, kept[k], kept[k-1]);
+			if (current != null && isLinear(current)) {
+				layer = mergeLayers(current, layer, reduced.get(reduced.size()-1).getN());
+			}
+			else if (current != null) {
+				reduced.add(current);
+			}
+			current = layer;
 			
-			// create arrays to store the upper bounds
-			double[] xUB = new double[layer.getN()];
-			double[] sUB = new double[layer.getN()];
+			// the merged layer has the neurons of the last layer it contains
+			if (reduced.size() == layerIndices.size()) {
+				layerIndices.add(k);
+				neuronIndices.add(kept[k]);
+			}
+			else {
+				layerIndices.set(layerIndices.size() - 1, k);
+				neuronIndices.set(neuronIndices.size() - 1, kept[k]);
+			}
+		}
+		reduced.add(current);
+		
+		// number the layers again
+		Layer[] layers = new Layer[reduced.size()];
+		for (int k=0; k < layers.length; k++) {
+			layers[k] = reduced.get(k).getView(k);
+		}
+		DNN dnn = new DNN(layers);
+		dnn.original = this;
+		dnn.originalLayers = layerIndices.stream().mapToInt(Integer::intValue).toArray();
+		dnn.originalNeurons = neuronIndices.toArray(new int[0][]);
+		return dnn;
+	}
+	
+	/**
+	 * Method that returns layer k with only the given neurons and the weights of the given neurons of the previous layer
+	 * @param k			The index of the layer
+	 * @param neurons	The neurons of the layer that are kept
+	 * @param previous	The neurons of the previous layer that are kept
+	 * @return			The layer with only the kept neurons
+	 */
+	private Layer getReducedLayer(int k, int[] neurons, int[] previous) {
+		Layer layer = this.layers[k];
+		double[][] w = new double[neurons.length][previous.length];
+		double[] b = new double[neurons.length];
+		for (int j=0; j < neurons.length; j++) {
+			for (int i=0; i < previous.length; i++) {
+				w[j][i] = layer.getWeights()[neurons[j]][previous[i]];
+			}
+			b[j] = layer.getBias()[neurons[j]];
+		}
+		
+		Layer reduced = new Layer(k, neurons.length, w, b);
+		reduced.setUpperBoundsX(select(layer.getUpperBoundsX(), neurons));
+		reduced.setUpperBoundsS(select(layer.getUpperBoundsS(), neurons));
+		reduced.setLowerBoundsX(select(layer.getLowerBoundsX(), neurons));
+		reduced.setLowerBoundsS(select(layer.getLowerBoundsS(), neurons));
+		return reduced;
+	}
+	
+	/**
+	 * Method that returns if all neurons of a layer are always active, so the activation function does nothing
+	 * @param layer		The layer
+	 * @return			If the layer is linear
+	 */
+	private static boolean isLinear(Layer layer) {
+		for (int j=0; j < layer.getN(); j++) {
+			if (!layer.isStableActive(j)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Method that merges a linear layer into the next layer, the merged layer has the bounds of the next layer
+	 * @param linear	The layer whose neurons are always active
+	 * @param next		The next layer
+	 * @param n_k_1		The number of neurons in the layer before the linear layer
+	 * @return			The merged layer
+	 */
+	private static Layer mergeLayers(Layer linear, Layer next, int n_k_1) {
+		double[][] w = new double[next.getN()][n_k_1];
+		double[] b = Arrays.copyOf(next.getBias(), next.getN());
+		for (int j=0; j < next.getN(); j++) {
+			for (int h=0; h < linear.getN(); h++) {
+				double w_jh = next.getWeights()[j][h];
+				if (w_jh == 0) {
+					continue;
+				}
+				for (int i=0; i < w[j].length; i++) {
+					w[j][i] += w_jh * linear.getWeights()[h][i];
+				}
+				b[j] += w_jh * linear.getBias()[h];
+			}
+		}
+		
+		Layer merged = new Layer(next.getK(), next.getN(), w, b);
+		merged.setUpperBoundsX(next.getUpperBoundsX());
+		merged.setUpperBoundsS(next.getUpperBoundsS());
+		merged.setLowerBoundsX(next.getLowerBoundsX());
+		merged.setLowerBoundsS(next.getLowerBoundsS());
+		return merged;
+	}
+	
+	/**
+	 * Method that returns the values of the given indices
+	 * @param values	The values
+	 * @param indices	The indices
+	 * @return			The values of the indices
+	 */
+	private static double[] select(double[] values, int[] indices) {
+		double[] selected = new double[indices.length];
+		for (int i=0; i < indices.length; i++) {
+			selected[i] = values[indices[i]];
+		}
+		return selected;
+	}
+	
+	/**
+	 * Method used to remove the weights with an absolute value below the tolerance from the MILP formulations,
+	 * the error this causes is added to the definitions of the neurons using the bounds of the previous layer,
+	 * so the bounds should be calculated before the models are created
+	 * @param tolerance		The tolerance below which weights are removed
+	 */
+	public void prune(double tolerance) {
+		for (int k=1; k < this.layers.length; k++) {
+			this.layers[k].prune(tolerance);
+		}
+	}
+	
+	/**
+	 * Method that returns the index of layer k in the DNN this DNN was reduced from
+	 * @param k		The index of the layer in this DNN
+	 * @return		The index of the layer in the original DNN
+	 */
+	public int getOriginalLayer(int k) {
+		return this.originalLayers == null ? k : this.originalLayers[k];
+	}
+	
+	/**
+	 * Method that returns the indices of the neurons of layer k in the DNN this DNN was reduced from
+	 * @param k		The index of the layer in this DNN
+	 * @return		The indices of the neurons in the original layer
+	 */
+	public int[] getOriginalNeurons(int k) {
+		if (this.originalNeurons == null) {
+			int[] neurons = new int[this.layers[k].getN()];
+			Arrays.setAll(neurons, j -> j);
+			return neurons;
+		}
+		return this.originalNeurons[k];
+	}
+	
+	/**
+	 * Method that maps the values of the neurons in layer k back to the neurons of the original layer,
+	 * the neurons that were removed are never active so their x value is 0
+	 * @param k			The index of the layer in this DNN
+	 * @param values	The values of the neurons in layer k
+	 * @return			The values of the neurons in the original layer
+	 */
+	public double[] toOriginal(int k, double[] values) {
+		return toOriginal(k, values, 0);
+	}
+	
+	/**
+	 * Method that maps the values of the neurons in layer k back to the neurons of the original layer
+	 * @param k			The index of the layer in this DNN
+	 * @param values	The values of the neurons in layer k
+	 * @param removed	The value of the neurons that were removed
+	 * @return			The values of the neurons in the original layer
+	 */
+	public double[] toOriginal(int k, double[] values, double removed) {
+		if (this.original == null) {
+			return values;
+		}
+		double[] originalValues = new double[this.original.getLayers()[getOriginalLayer(k)].getN()];
+		Arrays.fill(originalValues, removed);
+		int[] neurons = getOriginalNeurons(k);
+		for (int j=0; j < neurons.length; j++) {
+			originalValues[neurons[j]] = values[j];
+		}
+		return originalValues;
+	}
+	
+	/**
+	 * Method used to calculate the input of every neuron(before applying the activation function) 
+	 * when the DNN is given an input, the activation of a neuron is max(0, y) and its s value max(0, -y)
+	 * @param input		The input of the DNN
+	 * @return			The inputs of the neurons for every layer, where the first row is the input itself
+	 */
+	public double[][] forward(double[] input) {
+		double[][] y = new double[this.layers.length][];
+		y[0] = input;
+		for (int k=1; k < this.layers.length; k++) {
+			double[][] w = this.layers[k].getWeights();
+			double[] b = this.layers[k].getBias();
+			y[k] = new double[this.layers[k].getN()];
+			for (int j=0; j < y[k].length; j++) {
+				double y_j = b[j];
+				for (int i=0; i < w[j].length; i++) {
+					// the input layer has no activation function
+					double x_i = k == 1 ? y[0][i] : Math.max(0, y[k-1][i]);
+					y_j += w[j][i] * x_i;
+				}
+				y[k][j] = y_j;
+			}
+		}
+		return y;
+	}
+	
+	/**
+	 * Method that returns the activation of the neurons in the output layer for an input
+	 * @param input		The input of the DNN
+	 * @return			The activation of the output neurons
+	 */
+	public double[] getOutput(double[] input) {
+		double[] y_K = forward(input)[this.K];
+		double[] output = new double[y_K.length];
+		for (int j=0; j < output.length; j++) {
+			output[j] = Math.max(0, y_K[j]);
+		}
+		return output;
+	}
+	
+	/**
+	 * Method used to set the bounds of layer k using bounds on the input of its neurons
+	 * @param k				The index of the layer
+	 * @param inputBounds	The lower bounds in the first row and upper bounds in the second row
+	 */
+	private void setInputBounds(int k, double[][] inputBounds) {
+		Layer layer = this.layers[k];
+		double[] xUB = new double[layer.getN()];
+		double[] sUB = new double[layer.getN()];
+		double[] xLB = new double[layer.getN()];
+		double[] sLB = new double[layer.getN()];
+		for (int j=0; j < layer.getN(); j++) {
+			xUB[j] = Math.max(0, inputBounds[1][j]);
+			sUB[j] = Math.max(0, -inputBounds[0][j]);
+			// a positive lower bound on the input means x is at least this bound and 
+			// a negative upper bound means s is at least minus this bound
+			xLB[j] = Math.max(0, inputBounds[0][j]);
+			sLB[j] = Math.max(0, -inputBounds[1][j]);
+		}
+		layer.setUpperBoundsX(xUB);
+		layer.setUpperBoundsS(sUB);
+		layer.setLowerBoundsX(xLB);
+		layer.setLowerBoundsS(sLB);
+	}
+	
+	/**
+	 * Method used to tighten the bounds of layer k using bounds on the input of its neurons, the 
+	 * current bounds are only replaced if the new bounds are tighter
+	 * @param k				The index of the layer
+	 * @param inputBounds	The lower bounds in the first row and upper bounds in the second row
+	 */
+	private void intersectBounds(int k, double[][] inputBounds) {
+		Layer layer = this.layers[k];
+		for (int j=0; j < layer.getN(); j++) {
+			layer.getUpperBoundsX()[j] = Math.min(layer.getUpperBoundsX()[j], Math.max(0, inputBounds[1][j]));
+			layer.getUpperBoundsS()[j] = Math.min(layer.getUpperBoundsS()[j], Math.max(0, -inputBounds[0][j]));
+			layer.getLowerBoundsX()[j] = Math.max(layer.getLowerBoundsX()[j], Math.max(0, inputBounds[0][j]));
+			layer.getLowerBoundsS()[j] = Math.max(layer.getLowerBoundsS()[j], Math.max(0, -inputBounds[1][j]));
+		}
+	}
+	
+	/**
+	 * Method used to calculate bounds on the input of the neurons in layer k
+	 * (before applying the activation function) without using the MILP
+	 * @param k			The index of the layer
+	 * @param symbolic	If the linear relaxation should be used next to interval arithmetic
+	 * @return			The lower bounds in the first row and upper bounds in the second row
+	 */
+	private double[][] calculateInputBounds(int k, boolean symbolic) {
+		// interval arithmetic already shows for most neurons if they are always or never active
+		double[][] inputBounds = calculateIntervalBounds(k);
+		
+		// the linear relaxation is much tighter
+		if (symbolic) {
+			double[][] symbolicBounds = new SymbolicBounds(this.layers).calculateBounds(k);
+			for (int j=0; j < this.layers[k].getN(); j++) {
+				inputBounds[0][j] = Math.max(inputBounds[0][j], symbolicBounds[0][j]);
+				inputBounds[1][j] = Math.min(inputBounds[1][j], symbolicBounds[1][j]);
+			}
+		}
+		return inputBounds;
+	}
+	
+	/**
+	 * Method used to calculate bounds on the input of the neurons in layer k
+	 * (before applying the activation function) using interval arithmetic 
+	 * over the bounds of the previous layer
+	 * @param k		The index of the layer
+	 * @return		The lower bounds in the first row and upper bounds in the second row
+	 */
+	private double[][] calculateIntervalBounds(int k) {
+		double[][] w = this.layers[k].getWeights();
+		double[] b = this.layers[k].getBias();
+		double[] xLB = this.layers[k-1].getLowerBoundsX();
+		double[] xUB = this.layers[k-1].getUpperBoundsX();
+		
+		double[][] bounds = new double[2][this.layers[k].getN()];
+		for (int j=0; j < w.length; j++) {
+			double lb = b[j];
+			double ub = b[j];
+			// a positive weight is smallest at the lower bound and a negative weight at the upper bound
+			for (int i=0; i < w[j].length; i++) {
+				if (w[j][i] >= 0) {
+					lb += w[j][i] * xLB[i];
+					ub += w[j][i] * xUB[i];
+				}
+				else {
+					lb += w[j][i] * xUB[i];
+					ub += w[j][i] * xLB[i];
+				}
+			}
+			bounds[0][j] = lb;
+			bounds[1][j] = ub;
+		}
+		return bounds;
+	}
+	
+	/**
+	 * Method used to create the task that calculates the upper bounds of 
+	 * the given neurons of the last layer using a single bound model
+	 * @param dnnBounds		The DNN whose last layer is bounded
+	 * @param neurons		The indices of the neurons the task bounds
+	 * @param timeLimit		If a time limit should be imposed on the bound tightening
+	 * @param threads		The number of threads cplex may use(0 lets cplex decide)
+	 * @return				The task that returns the upper bounds on x and s indexed by neuron
+	 */
+	private static Callable<double[][]> createBoundsTask(DNN dnnBounds, List<Integer> neurons, boolean timeLimit, int threads) {
+		return () -> {
+			// the DNN is only read so it can be shared by the tasks
+			Layer layer = dnnBounds.getLayers()[dnnBounds.getNLayers()];
+			double[][] bounds = new double[layer.getN()][];
 			
-			// get the weights and biases of this layer
-			double[][] weights = layer.getWeights();
-			double[] bias = layer.getBias();
-			// for every neuron in the layer:
-			for (int j=0; j < layer.getN(); j++) {
-				// get the weights and bias corresponding to this neuron
-				double[][] w_j = {weights[j]};
-				double[] b_j = {bias[j]};
-				// create a layer containing only this neuron
-				Layer layer_j_k = new Layer(k, 1, w_j, b_j);
-				layers[k] = layer_j_k;
-				
-				// create a DNN using the copied previous layers and this new layer
-				DNN dnnBounds = new DNN(layers);
-				
-				// get and store the bounds
-				MILPBounds boundsModel = new MILPBounds(dnnBounds, timeLimit);
-				double[] bounds = boundsModel.getUpperBounds();
+			// get the bounds of the neurons by only changing the bounded neuron in the model
+			MILPBounds boundsModel = new MILPBounds(dnnBounds, timeLimit, threads);
+			try {
+				for (int j: neurons) {
+					bounds[j] = boundsModel.getBounds(j);
+				}
+			}
+			finally {
 				boundsModel.cleanup();
-				
-				xUB[j] = bounds[0];
-				sUB[j] = bounds[1];
 			}
-			layer.setUpperBoundsX(xUB);
-			layer.setUpperBoundsS(sUB);
-//			System.out.println(k + " " + Arrays.toString(xUB));
-//			System.out.println(k + " " + Arrays.toString(sUB));
-		}
+			return bounds;
+		};
 	}
 	
 	/**
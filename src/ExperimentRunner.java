@@ -0,0 +1,200 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ilog.concert.IloException;
+
+
+/**
+ * Class used to run the experiments of a driver, like creating the adversarial example of every image,
+ * using several workers. Every worker creates its own model and takes the next experiment when it is done,
+ * the threads of the machine are divided over the workers. The results are returned in the order of
+ * the experiments, so the files written using them are the same as when the experiments are run one after another
+ * @author Tim Tjhay (495230tt)
+ */
+public class ExperimentRunner {
+	private int nWorkers;
+	
+	/**
+	 * Interface used to create the model of a worker
+	 * @param <M>	The type of the model
+	 */
+	public interface ModelFactory<M> {
+		/**
+		 * Method used to create a model
+		 * @param threads	The number of threads cplex may use(0 lets cplex decide)
+		 * @return			The model
+		 * @throws IloException
+		 */
+		M create(int threads) throws IloException;
+	}
+	
+	/**
+	 * Interface used to run a single experiment using the model of a worker
+	 * @param <M>	The type of the model
+	 * @param <R>	The type of the result
+	 */
+	public interface Experiment<M, R> {
+		/**
+		 * Method used to run experiment i
+		 * @param model		The model of the worker
+		 * @param i			The index of the experiment
+		 * @return			The result of the experiment
+		 * @throws IloException
+		 * @throws IOException
+		 */
+		R run(M model, int i) throws IloException, IOException;
+	}
+	
+	/**
+	 * Interface used to clean up the model of a worker when all experiments are done
+	 * @param <M>	The type of the model
+	 */
+	public interface Cleanup<M> {
+		/**
+		 * Method used to clean up a model
+		 * @param model		The model
+		 * @throws IloException
+		 */
+		void cleanup(M model) throws IloException;
+	}
+	
+	/**
+	 * Initializes the runner using a number of workers
+	 * @param nWorkers		The number of workers(1 runs the experiments one after another)
+	 */
+	public ExperimentRunner(int nWorkers) {
+		this.nWorkers = Math.max(1, nWorkers);
+	}
+	
+	/**
+	 * Method that returns the number of threads cplex may use in every worker,
+	 * a single worker lets cplex use all threads
+	 * @return	The number of threads of a worker(0 lets cplex decide)
+	 */
+	public int getThreads() {
+		if (this.nWorkers == 1) {
+			return 0;
+		}
+		return Math.max(1, Runtime.getRuntime().availableProcessors() / this.nWorkers);
+	}
+	
+	/**
+	 * Method used to run all experiments and wait until they are finished
+	 * @param nExperiments		The number of experiments
+	 * @param factory			Creates the model of a worker
+	 * @param experiment		Runs an experiment using the model of a worker
+	 * @param cleanup			Cleans up the model of a worker
+	 * @return					The results in the order of the experiments(null for the experiments that were not run because the run was stopped)
+	 * @throws IloException
+	 * @throws IOException
+	 */
+	public <M, R> List<R> run(int nExperiments, ModelFactory<M> factory, Experiment<M, R> experiment, Cleanup<M> cleanup) throws IloException, IOException {
+		Object[] results = new Object[nExperiments];
+		AtomicInteger next = new AtomicInteger();
+		int threads = getThreads();
+		
+		// every worker takes the next experiment until all of them have been taken
+		Callable<Void> worker = () -> {
+			M model = factory.create(threads);
+			try {
+				for (int i=next.getAndIncrement(); i < nExperiments; i=next.getAndIncrement()) {
+					// no new experiments are started after the run was stopped
+					if (RunControl.isStopped()) {
+						break;
+					}
+					results[i] = experiment.run(model, i);
+				}
+			}
+			finally {
+				cleanup.cleanup(model);
+			}
+			return null;
+		};
+		List<Callable<Void>> workers = new ArrayList<>();
+		for (int w=0; w < Math.min(this.nWorkers, nExperiments); w++) {
+			workers.add(worker);
+		}
+		
+		// a single worker runs the experiments in this thread
+		ExecutorService pool = this.nWorkers == 1 ? null : Executors.newFixedThreadPool(this.nWorkers);
+		try {
+			runTasks(pool, workers);
+		}
+		finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+		
+		@SuppressWarnings("unchecked")
+		List<R> list = (List<R>) Arrays.asList(results);
+		return list;
+	}
+	
+	/**
+	 * Method used to run tasks and wait until all of them are finished, 
+	 * which is also used to tighten the bounds of a layer using several workers
+	 * @param pool		The pool of workers used to run the tasks(null runs them one after another)
+	 * @param tasks		The tasks that need to be run
+	 * @return			The results of the tasks in the same order as the tasks
+	 * @throws IloException
+	 * @throws IOException
+	 */
+	public static <T> List<T> runTasks(ExecutorService pool, List<Callable<T>> tasks) throws IloException, IOException {
+		List<T> results = new ArrayList<>();
+		try {
+			if (pool == null) {
+				for (Callable<T> task: tasks) {
+					results.add(task.call());
+				}
+			}
+			else {
+				for (Future<T> future: pool.invokeAll(tasks)) {
+					results.add(future.get());
+				}
+			}
+		}
+		catch (ExecutionException e) {
+			throw unwrap(e.getCause());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IloException("Interrupted while running the tasks");
+		}
+		catch (Exception e) {
+			throw unwrap(e);
+		}
+		return results;
+	}
+	
+	/**
+	 * Method used to rethrow the exception thrown by a task
+	 * @param e		The exception thrown by the task
+	 * @return		The exception as an IloException
+	 * @throws IOException
+	 */
+	private static IloException unwrap(Throwable e) throws IOException {
+		if (e instanceof IloException) {
+			return (IloException) e;
+		}
+		if (e instanceof IOException) {
+			throw (IOException) e;
+		}
+		if (e instanceof RuntimeException) {
+			throw (RuntimeException) e;
+		}
+		if (e instanceof Error) {
+			throw (Error) e;
+		}
+		return new IloException(e.toString());
+	}
+	
+}
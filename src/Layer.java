@@ -5,12 +5,22 @@ import java.util.Arrays;
  * Class used to model a layer of a DNN
  * @author Tim Tjhay (495230tt)
  */
-public class Layer implements Cloneable {
+public class Layer {
 	private int k;
 	private int n;
 	private double[][] weights;
 	private double[] bias;
 	
+	// the weights in compressed sparse row format, the weights of neuron j are stored at rowStart[j] to rowStart[j+1]
+	private int[] rowStart;
+	private int[] columns;
+	private double[] values;
+	
+	// the weights that were removed by pruning in the same format
+	private int[] prunedRowStart;
+	private int[] prunedColumns;
+	private double[] prunedValues;
+	
 	private double[] upperBoundsX;
 	private double[] lowerBoundsX;
 	
@@ -42,30 +52,34 @@ public class Layer implements Cloneable {
 	}
 	
 	/**
-	 * Method used to create a deep copy of a layer 
+	 * Method that returns a view of the layer that shares the weights and biases with this layer, 
+	 * only the bounds are copied so they can be changed without affecting this layer
+	 * @return	The view of the layer
 	 */
-	public Layer clone() throws CloneNotSupportedException{
-		// create a copy of the layer
-		Layer clone = (Layer)super.clone();
-		
-		// copy the arrays individually so original will not 
-		// be affected by changes to clone
-		if (this.weights != null) {
-			clone.weights = new double[this.weights.length][];
-			int n_k_1 = this.weights[0].length;
-			for (int i=0; i < this.weights.length; i++) {
-				clone.weights[i] = Arrays.copyOf(this.weights[i], n_k_1);
-			}
-
-			clone.bias = Arrays.copyOf(this.bias, this.n);
+	public Layer getView() {
+		return getView(this.k);
+	}
+	
+	/**
+	 * Method that returns a view of the layer at another index of a DNN
+	 * @param k		The index of the view
+	 * @return		The view of the layer
+	 */
+	public Layer getView(int k) {
+		Layer view = new Layer(k, this.n, this.weights, this.bias);
+		synchronized (this) {
+			view.rowStart = this.rowStart;
+			view.columns = this.columns;
+			view.values = this.values;
+			view.prunedRowStart = this.prunedRowStart;
+			view.prunedColumns = this.prunedColumns;
+			view.prunedValues = this.prunedValues;
 		}
-
-		clone.lowerBoundsS = Arrays.copyOf(this.lowerBoundsS, this.n);
-		clone.lowerBoundsX = Arrays.copyOf(this.lowerBoundsX, this.n);
-		clone.upperBoundsS = Arrays.copyOf(this.upperBoundsS, this.n);
-		clone.upperBoundsX = Arrays.copyOf(this.upperBoundsX, this.n);
-		
-		return clone;
+		view.lowerBoundsS = Arrays.copyOf(this.lowerBoundsS, this.n);
+		view.lowerBoundsX = Arrays.copyOf(this.lowerBoundsX, this.n);
+		view.upperBoundsS = Arrays.copyOf(this.upperBoundsS, this.n);
+		view.upperBoundsX = Arrays.copyOf(this.upperBoundsX, this.n);
+		return view;
 	}
 	
 	/**
@@ -100,6 +114,157 @@ public class Layer implements Cloneable {
 		return this.bias;
 	}
 	
+	/**
+	 * Method used to remove the weights with an absolute value below the tolerance from the sparse weights,
+	 * the dense weights are not changed so the bounds are still calculated using all weights
+	 * @param tolerance		The tolerance below which weights are removed
+	 */
+	public synchronized void prune(double tolerance) {
+		int nKept = 0;
+		int nPruned = 0;
+		for (double[] w_j: this.weights) {
+			for (double w_ji: w_j) {
+				if (Math.abs(w_ji) >= tolerance && w_ji != 0) {
+					nKept++;
+				}
+				else if (w_ji != 0) {
+					nPruned++;
+				}
+			}
+		}
+		
+		// fill new arrays, so the layer can be used by other threads while it is pruned
+		int[] rowStart = new int[this.n + 1];
+		int[] columns = new int[nKept];
+		double[] values = new double[nKept];
+		int[] prunedRowStart = new int[this.n + 1];
+		int[] prunedColumns = new int[nPruned];
+		double[] prunedValues = new double[nPruned];
+		
+		int kept = 0;
+		int pruned = 0;
+		for (int j=0; j < this.n; j++) {
+			rowStart[j] = kept;
+			prunedRowStart[j] = pruned;
+			for (int i=0; i < this.weights[j].length; i++) {
+				double w_ji = this.weights[j][i];
+				if (Math.abs(w_ji) >= tolerance && w_ji != 0) {
+					columns[kept] = i;
+					values[kept] = w_ji;
+					kept++;
+				}
+				else if (w_ji != 0) {
+					prunedColumns[pruned] = i;
+					prunedValues[pruned] = w_ji;
+					pruned++;
+				}
+			}
+		}
+		rowStart[this.n] = kept;
+		prunedRowStart[this.n] = pruned;
+		
+		this.rowStart = rowStart;
+		this.columns = columns;
+		this.values = values;
+		this.prunedRowStart = prunedRowStart;
+		this.prunedColumns = prunedColumns;
+		this.prunedValues = prunedValues;
+	}
+	
+	/**
+	 * Method used to create the sparse weights without pruning if they do not exist yet
+	 */
+	private synchronized void initSparse() {
+		if (this.rowStart == null && this.weights != null) {
+			// without pruning only the weights that are 0 are removed
+			prune(0);
+		}
+	}
+	
+	/**
+	 * Method that returns the indices where the weights of every neuron start in the sparse weights,
+	 * the last index is the number of nonzero weights
+	 * @return	The start of the weights of every neuron
+	 */
+	public int[] getRowStart() {
+		initSparse();
+		return this.rowStart;
+	}
+	
+	/**
+	 * Method that returns the index of the neuron in the previous layer for every nonzero weight
+	 * @return	The columns of the sparse weights
+	 */
+	public int[] getColumns() {
+		initSparse();
+		return this.columns;
+	}
+	
+	/**
+	 * Method that returns the nonzero weights that were not pruned
+	 * @return	The values of the sparse weights
+	 */
+	public double[] getValues() {
+		initSparse();
+		return this.values;
+	}
+	
+	/**
+	 * Method that returns if weights of neuron j were pruned, so the error caused by pruning
+	 * only has to be calculated for these neurons
+	 * @param j		The index of the neuron
+	 * @return		If weights of the neuron were pruned
+	 */
+	public boolean isPruned(int j) {
+		initSparse();
+		return this.prunedRowStart[j] < this.prunedRowStart[j+1];
+	}
+	
+	/**
+	 * Method that returns the maximum error in the input of neuron j caused by pruning, 
+	 * which is the sum of the absolute pruned weights times the maximum absolute input they are multiplied by
+	 * @param j				The index of the neuron
+	 * @param maxInput		The maximum absolute value of every input of the neuron
+	 * @return				The maximum error
+	 */
+	public double getPruningError(int j, double[] maxInput) {
+		initSparse();
+		double error = 0;
+		for (int h=this.prunedRowStart[j]; h < this.prunedRowStart[j+1]; h++) {
+			error += Math.abs(this.prunedValues[h]) * maxInput[this.prunedColumns[h]];
+		}
+		return error;
+	}
+	
+	/**
+	 * Method that returns if neuron j is always active, which is the case 
+	 * when its s variable can only be 0
+	 * @param j		The index of the neuron
+	 * @return		If the neuron is always active
+	 */
+	public boolean isStableActive(int j) {
+		return this.upperBoundsS[j] <= 0;
+	}
+	
+	/**
+	 * Method that returns if neuron j is never active, which is the case
+	 * when its x variable can only be 0
+	 * @param j		The index of the neuron
+	 * @return		If the neuron is never active
+	 */
+	public boolean isStableInactive(int j) {
+		return this.upperBoundsX[j] <= 0;
+	}
+	
+	/**
+	 * Method that returns if neuron j is unstable, meaning it can be both active and inactive
+	 * @param j		The index of the neuron
+	 * @return		If the neuron is unstable
+	 */
+	public boolean isUnstable(int j) {
+		return !isStableActive(j) && !isStableInactive(j);
+	}
+	
 	/**
 	 * Method that returns the upper bounds of the x variables for the neurons in the layer
 	 * @return Upper bounds on x variables of neurons
@@ -1,11 +1,13 @@
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
-import ilog.concert.IloConstraint;
 import ilog.concert.IloException;
 import ilog.concert.IloNumExpr;
 import ilog.concert.IloNumVar;
+import ilog.concert.IloRange;
 import ilog.cplex.IloCplex;
+import ilog.cplex.IloCplex.UnknownObjectException;
 
 /**
  * Class used to model the MILP formulation used to create adversarial examples
@@ -20,14 +22,17 @@ public class MILPAdvAfterImpr {
 	private double[] p;
 	private double[] q;
 	private boolean perturb;
+	private boolean foldInput;
 	
 	private IloNumVar[] dVarList;
-	private Map<Layer,IloNumVar[]> xVarMap;
-	private Map<Layer,IloNumVar[]> sVarMap;
-	private Map<Layer,IloNumVar[]> zVarMap;
+	private IloNumVar[] dPlusList;
+	private IloNumVar[] dMinusList;
+	private NetworkEncoder encoder;
 	
-	private IloConstraint[] targetConstr;
-	private IloConstraint[] defDConstr;
+	private IloRange[] targetConstr;
+	private IloRange[] defDConstr;
+	
+	private MIPStartStore startStore;
 	
 	/**
 	 * Initializes a model used to create an adversarial example
@@ -40,13 +45,59 @@ public class MILPAdvAfterImpr {
 	 * @throws IloException		
 	 */
 	public MILPAdvAfterImpr(DNN dnn, double[] input, int targetDigit, boolean perturb, double[][] perturbation) throws IloException {
+		this(dnn, input, targetDigit, perturb, perturbation, ReLUFormulation.INDICATOR);
+	}
+	
+	/**
+	 * Initializes a model used to create an adversarial example
+	 * after applying an accuracy improvement method using a chosen
+	 * formulation of the activation functions
+	 * @param dnn				The used DNN
+	 * @param input				The original image
+	 * @param targetDigit		The digit that the adversarial example needs to be classified as
+	 * @param perturb			If the input should be perturbed
+	 * @param perturbation		The perturbation that should be used
+	 * @param formulation		The formulation used for the relation between x, s and z
+	 * @throws IloException		
+	 */
+	public MILPAdvAfterImpr(DNN dnn, double[] input, int targetDigit, boolean perturb, double[][] perturbation, ReLUFormulation formulation) throws IloException {
+		this(dnn, perturb, perturbation, formulation);
+		setImage(input, targetDigit);
+	}
+	
+	/**
+	 * Initializes a model that can be reused to create adversarial examples for several images
+	 * after applying an accuracy improvement method, the network is only encoded once
+	 * and solveFor sets the image and target
+	 * @param dnn				The used DNN
+	 * @param perturb			If the input should be perturbed
+	 * @param perturbation		The perturbation that should be used
+	 * @param formulation		The formulation used for the relation between x, s and z
+	 * @throws IloException		
+	 */
+	public MILPAdvAfterImpr(DNN dnn, boolean perturb, double[][] perturbation, ReLUFormulation formulation) throws IloException {
+		this(dnn, perturb, perturbation, formulation, false);
+	}
+	
+	/**
+	 * Initializes a model that can be reused to create adversarial examples for several images
+	 * after applying an accuracy improvement method, which can fold the perturbed image into the 
+	 * definitions of the first hidden layer so the model has no variables for the input layer
+	 * @param dnn				The used DNN
+	 * @param perturb			If the input should be perturbed
+	 * @param perturbation		The perturbation that should be used
+	 * @param formulation		The formulation used for the relation between x, s and z
+	 * @param foldInput			If the image should be folded into the first hidden layer
+	 * @throws IloException		
+	 */
+	public MILPAdvAfterImpr(DNN dnn, boolean perturb, double[][] perturbation, ReLUFormulation formulation, boolean foldInput) throws IloException {
 		this.cplex = new IloCplex();
+		RunControl.register(this.cplex);
 		this.cplex.setOut(null);
 		
 		// store relevant data
 		this.dnn = dnn;
-		this.input = input;
-		this.targetDigit = targetDigit;
+		this.foldInput = foldInput;
 		
 		// store the perturbation if necessary
 		this.perturb = perturb;
@@ -55,27 +106,30 @@ public class MILPAdvAfterImpr {
 			this.q = perturbation[1];
 		}
 		
-		// create maps for the variable
-		this.dVarList = new IloNumVar[input.length];
-		this.xVarMap = new HashMap<>();
-		this.sVarMap = new HashMap<>();
-		this.zVarMap = new HashMap<>();
+		// create the encoder for the variables of the DNN
+		this.dVarList = new IloNumVar[dnn.getLayers()[0].getN()];
+		this.dPlusList = new IloNumVar[this.dVarList.length];
+		this.dMinusList = new IloNumVar[this.dVarList.length];
+		this.encoder = new NetworkEncoder(this.cplex, dnn, formulation);
 		
 		// create the variables and add the objective
 		createVariables();
 		addObjective();
 		
 		
-		// add the constraints
+		// add the constraints, the constraints that depend on the image and target are set by setImage
+		int K = dnn.getLayers().length - 1;
 		addDefNeuron1();
-		addDefNeuron();
+		this.encoder.addDefNeuron(2, K);
 		
-		addXSZConstraints();
+		this.encoder.addXSZConstraints(1, K);
 		
 		addTargetClass();
-		addDefD();
-		
-		addMaxDeviation();
+		if (!foldInput) {
+			addDefD();
+			
+			addMaxDeviation();
+		}
 		
 		// add a time limit of 300 seconds
 		this.cplex.setParam(IloCplex.Param.TimeLimit, 300);
@@ -86,26 +140,19 @@ public class MILPAdvAfterImpr {
 	 * @throws IloException
 	 */
 	private void createVariables() throws IloException {
-		for (Layer k: this.dnn.getLayers()) {
-			this.xVarMap.put(k, new IloNumVar[k.getN()]);
-			this.sVarMap.put(k, new IloNumVar[k.getN()]);
-			if (k != this.dnn.getLayers()[0]) {
-				this.zVarMap.put(k, new IloNumVar[k.getN()]);
-			}
-			double[] xLB = k.getLowerBoundsX();
-			double[] xUB = k.getUpperBoundsX();
-			double[] sLB = k.getLowerBoundsS();
-			double[] sUB = k.getUpperBoundsS();
+		if (this.foldInput) {
+			this.encoder.createVariables(1, this.dnn.getLayers().length - 1);
 			
-			for (int i=0; i < k.getN(); i++) {
-				this.xVarMap.get(k)[i] = this.cplex.numVar(xLB[i], xUB[i]);
-				this.sVarMap.get(k)[i] = this.cplex.numVar(sLB[i], sUB[i]);
-				if (k != this.dnn.getLayers()[0]) {
-					this.zVarMap.get(k)[i] = this.cplex.boolVar();
-				}
+			// the deviations are at most 1, their bounds are tightened for every image
+			for (int i=0; i < this.dPlusList.length; i++) {
+				this.dPlusList[i] = this.cplex.numVar(0, 1);
+				this.dMinusList[i] = this.cplex.numVar(0, 1);
 			}
+			return;
 		}
 		
+		this.encoder.createVariables(0, this.dnn.getLayers().length - 1);
+		
 		for (int i=0; i < this.dVarList.length; i++) {
 			this.dVarList[i] = this.cplex.numVar(0, Integer.MAX_VALUE);
 		}
@@ -116,146 +163,127 @@ public class MILPAdvAfterImpr {
 	 * @throws IloException
 	 */
 	private void addObjective() throws IloException {
-		IloNumExpr obj = this.cplex.sum(this.dVarList);
+		IloNumExpr obj;
+		if (this.foldInput) {
+			obj = this.cplex.sum(this.cplex.sum(this.dPlusList), this.cplex.sum(this.dMinusList));
+		}
+		else {
+			obj = this.cplex.sum(this.dVarList);
+		}
 		this.cplex.addMinimize(obj);
 	}
 	
-	/**
-	 * Method used to add the constraint that imposes the 
-	 * definition of a neuron
-	 * @throws IloException
-	 */
-	private void addDefNeuron() throws IloException {
-		Layer[] layers = this.dnn.getLayers();
-		for (int k=2; k < layers.length; k++) {
-			double[][] w = layers[k].getWeights();
-			double[] b = layers[k].getBias();
-
-			IloNumVar[] x = this.xVarMap.get(layers[k]);
-
-			IloNumVar[] x_k_1 = this.xVarMap.get(layers[k-1]);
-			IloNumVar[] s = this.sVarMap.get(layers[k]);
-			for (int j=0; j < x.length; j++) {
-				IloNumExpr rhs = this.cplex.diff(x[j], s[j]);
-				IloNumExpr lhs = this.cplex.constant(b[j]);
-
-				for (int i=0; i < x_k_1.length; i++) {
-					IloNumExpr wx = this.cplex.prod(w[j][i], x_k_1[i]);
-					lhs = this.cplex.sum(lhs, wx);
-				}
-
-				this.cplex.addEq(lhs, rhs);
-
-			}
-		}
-	}
-
 	/**
 	 * Method used to add the constraint that imposes the 
 	 * definition of a neuron for the for the first hidden layer
 	 * @throws IloException
 	 */
 	private void addDefNeuron1() throws IloException {
-		// get the weights and biases of the first hidden layer
-		Layer[] layers = this.dnn.getLayers();
-		double[][] w = layers[1].getWeights();
-		double[] b = layers[1].getBias();
-
-		// get the needed x and s variables
-		IloNumVar[] x_1 = this.xVarMap.get(layers[1]);
-		IloNumVar[] s_1 = this.sVarMap.get(layers[1]);
+		if (this.foldInput) {
+			// the deviations are multiplied by p as well, the image is folded into the definitions by setImage
+			this.encoder.addDefNeuron1(this.dPlusList, this.dMinusList, this.p);
+			return;
+		}
 		
-		IloNumVar[] x_0 = this.xVarMap.get(layers[0]);
-
-		// add the definition of the neurons
-		for (int j=0; j < x_1.length; j++) {
-			IloNumExpr rhs = this.cplex.diff(x_1[j], s_1[j]);
-			IloNumExpr lhs = this.cplex.constant(b[j]);
-
-			for (int i=0; i < x_0.length; i++) {
-				IloNumExpr x_0_i  = x_0[i];
-				if (this.perturb) {
-					x_0_i  = this.cplex.prod(x_0_i, this.p[i]);
-					x_0_i = this.cplex.sum(x_0_i, this.q[i]);
-				}
-				IloNumExpr wx = this.cplex.prod(w[j][i], x_0_i);
-				lhs = this.cplex.sum(lhs, wx);
-			}
-
-			this.cplex.addEq(lhs, rhs);
+		// add the definition of the neurons, where the perturbation is folded into the weights and bias
+		if (this.perturb) {
+			this.encoder.addDefNeuron1(this.p, this.q);
+		}
+		else {
+			this.encoder.addDefNeuron(1, 1);
 		}
 	}
 	
 	/**
-	 * Method used to add the indicator constraints that use z
+	 * Method used to add the constraints that set the target classification, 
+	 * their coefficients are set when the target digit is chosen
 	 * @throws IloException
 	 */
-	private void addXSZConstraints() throws IloException {
-		Layer[] layers = this.dnn.getLayers();
-		for (int k=1; k < layers.length; k++) {
-			IloNumVar[] x = this.xVarMap.get(layers[k]);
-			IloNumVar[] s = this.sVarMap.get(layers[k]);
-			IloNumVar[] z = this.zVarMap.get(layers[k]);
-			for (int j=0; j < x.length; j++) {
-				IloConstraint zConstr1 = this.cplex.eq(z[j], 1);
-				IloConstraint xConstr = this.cplex.eq(x[j], 0);
-				IloConstraint xzConstr = this.cplex.ifThen(zConstr1, xConstr);
-				this.cplex.add(xzConstr);
-				
-				IloConstraint zConstr0 = this.cplex.eq(z[j], 0);
-				IloConstraint sConstr = this.cplex.eq(s[j], 0);
-				IloConstraint szConstr = this.cplex.ifThen(zConstr0, sConstr);
-				this.cplex.add(szConstr);
-			}
+	private void addTargetClass() throws IloException {
+		IloNumVar[] x_K = this.encoder.getX(this.dnn.getLayers().length - 1);
+		
+		this.targetConstr = new IloRange[x_K.length-1];
+		for (int i=0; i < this.targetConstr.length; i++) {
+			this.targetConstr[i] = this.cplex.addGe(this.cplex.linearNumExpr(), 0);
 		}
 	}
 	
 	/**
-	 * Method used to add the constraint that sets target classification
+	 * Method used to make the target constraints impose x_t - 1.2*x_j >= 0 for every other neuron j
+	 * @param targetDigit		The digit that the adversarial example needs to be classified as
 	 * @throws IloException
 	 */
-	private void addTargetClass() throws IloException {
-		Layer[] layers = this.dnn.getLayers(); 
-		Layer outputLayer = layers[layers.length - 1];
-		IloNumVar[] x_K = this.xVarMap.get(outputLayer);
-		
-		IloNumExpr lhs = x_K[this.targetDigit];
-
-		this.targetConstr = new IloConstraint[x_K.length-1];
-		int i = 0;
+	private void setTargetDigit(int targetDigit) throws IloException {
+		this.targetDigit = targetDigit;
 		
-//		this.targetConstr = new IloConstraint[x_K.length];
-//		this.targetConstr[0] = this.cplex.addGe(lhs, this.cplex.constant(0.01));
-//		int i = 1;
+		IloNumVar[] x_K = this.encoder.getX(this.dnn.getLayers().length - 1);
 		
+		int i = 0;
 		for (int j=0; j < x_K.length; j++) {
-			if (j != this.targetDigit) {
-				IloNumExpr rhs = this.cplex.prod(1.2, x_K[j]);
-				
-				this.targetConstr[i] = this.cplex.addGe(lhs, rhs);
+			if (j != targetDigit) {
+				double[] coefs = new double[x_K.length];
+				coefs[targetDigit] = 1;
+				coefs[j] = -1.2;
+				this.cplex.setLinearCoefs(this.targetConstr[i], coefs, x_K);
 				i++;
 			}
 		}
 	}
 
 	/**
-	 * Method used to add constraint that defines the disturbance d
+	 * Method used to add constraint that defines the disturbance d as
+	 * x_0 - d <= input and x_0 + d >= input
 	 * @throws IloException
 	 */
 	private void addDefD() throws IloException {
-		Layer inputLayer  = this.dnn.getLayers()[0];
-		IloNumVar[] x_0 = this.xVarMap.get(inputLayer);
+		IloNumVar[] x_0 = this.encoder.getX(0);
 		
-		this.defDConstr = new IloConstraint[this.dVarList.length*2];
+		this.defDConstr = new IloRange[this.dVarList.length*2];
 		
 		for (int j=0; j < this.dVarList.length; j++) {
-			IloNumExpr lhs = this.dVarList[j];
-			IloNumExpr rhs = this.cplex.diff(x_0[j], this.input[j]);
+			this.defDConstr[2*j] = this.cplex.addLe(this.cplex.diff(x_0[j], this.dVarList[j]), 0);
+			this.defDConstr[2*j + 1] = this.cplex.addGe(this.cplex.sum(x_0[j], this.dVarList[j]), 0);
+		}
+	}
+	
+	/**
+	 * Method used to set the image the adversarial example is created from and the target digit
+	 * @param input				The original image
+	 * @param targetDigit		The digit that the adversarial example needs to be classified as
+	 * @throws IloException
+	 */
+	private void setImage(double[] input, int targetDigit) throws IloException {
+		this.input = input;
+		if (this.foldInput) {
+			setFoldedImage(input);
+		}
+		else {
+			for (int j=0; j < this.dVarList.length; j++) {
+				this.defDConstr[2*j].setUB(input[j]);
+				this.defDConstr[2*j + 1].setLB(input[j]);
+			}
+		}
+		setTargetDigit(targetDigit);
+	}
+	
+	/**
+	 * Method used to set the bounds of the deviations for an image and fold the perturbed 
+	 * image p*input + q into the definitions of the first hidden layer
+	 * @param input		The original image
+	 * @throws IloException
+	 */
+	private void setFoldedImage(double[] input) throws IloException {
+		Layer inputLayer = this.dnn.getLayers()[0];
+		double[] input1 = new double[input.length];
+		for (int j=0; j < input.length; j++) {
+			double maxIncrease = inputLayer.getUpperBoundsX()[j] - input[j];
+			double maxDecrease = input[j] - inputLayer.getLowerBoundsX()[j];
+			this.dPlusList[j].setUB(Math.max(0, Math.min(1, maxIncrease)));
+			this.dMinusList[j].setUB(Math.max(0, Math.min(1, maxDecrease)));
 			
-			this.defDConstr[2*j] = this.cplex.addGe(lhs, rhs);
-			lhs = this.cplex.prod(this.cplex.constant(-1), lhs);
-			this.defDConstr[2*j + 1] =  this.cplex.addLe(lhs, rhs);
+			input1[j] = this.perturb ? this.p[j] * input[j] + this.q[j] : input[j];
 		}
+		this.encoder.setInput1(input1);
 	}
 	
 	/**
@@ -277,11 +305,120 @@ public class MILPAdvAfterImpr {
 	 */
 	public boolean solve() throws IloException {
 		this.cplex.solve();
-		System.out.println(this.cplex.getCplexStatus() + " " + this.cplex.getObjValue());
+		String obj = this.cplex.isPrimalFeasible() ? " " + this.cplex.getObjValue() : "";
+		System.out.println(this.cplex.getCplexStatus() + obj);
 		boolean solved = this.cplex.getCplexStatus().toString().contains("Optimal");
 		return solved;
 	}
 	
+	/**
+	 * Method used to create an adversarial example for another image and target digit
+	 * using the same model, the starts of the previous image are removed so every image
+	 * is solved the same way as with a new model
+	 * @param input				The original image
+	 * @param targetDigit		The digit that the adversarial example needs to be classified as
+	 * @return					If the model was optimally solved or the optimality gap was reaches
+	 * @throws IloException
+	 * @throws IOException
+	 */
+	public boolean solveFor(double[] input, int targetDigit) throws IloException, IOException {
+		setImage(input, targetDigit);
+		if (this.cplex.getNMIPStarts() > 0) {
+			this.cplex.deleteMIPStarts(0, this.cplex.getNMIPStarts());
+		}
+		
+		// start from the stored adversarial example, which can be infeasible for the improved DNN
+		if (this.startStore != null) {
+			double[] advExmpl = this.startStore.load(input, targetDigit, 1);
+			if (advExmpl != null) {
+				addStart(MIPStartStore.project(advExmpl, input, 1, this.dnn.getLayers()[0]));
+			}
+		}
+		
+		boolean solved = solve();
+		if (this.startStore != null && this.cplex.isPrimalFeasible()) {
+			this.startStore.store(input, targetDigit, 1, getAdvExmpl());
+		}
+		return solved;
+	}
+	
+	/**
+	 * Method used to set the store the adversarial examples are saved in after every solve, 
+	 * the stored adversarial example of the image and target is added as a start before solving
+	 * @param startStore	The store(null stops using a store)
+	 */
+	public void setStartStore(MIPStartStore startStore) {
+		this.startStore = startStore;
+	}
+	
+	/**
+	 * Method used to add an image as a start for the current image, the values of all variables are calculated 
+	 * using a forward pass of the perturbed image through the DNN and cplex repairs the start if it is infeasible
+	 * @param advExmpl		The image used as start(before it is perturbed)
+	 * @throws IloException
+	 */
+	public void addStart(double[] advExmpl) throws IloException {
+		double[] perturbed = advExmpl.clone();
+		if (this.perturb) {
+			for (int j=0; j < perturbed.length; j++) {
+				perturbed[j] = this.p[j] * advExmpl[j] + this.q[j];
+			}
+		}
+		// the variables of the input layer are the image before it is perturbed
+		double[][] y = this.dnn.forward(perturbed);
+		y[0] = advExmpl;
+		
+		List<IloNumVar> vars = new ArrayList<>();
+		List<Double> values = new ArrayList<>();
+		this.encoder.addStartValues(y, vars, values);
+		
+		// add the disturbance of every pixel
+		for (int j=0; j < advExmpl.length; j++) {
+			double d = advExmpl[j] - this.input[j];
+			if (this.foldInput) {
+				vars.add(this.dPlusList[j]);
+				values.add(Math.max(0, d));
+				vars.add(this.dMinusList[j]);
+				values.add(Math.max(0, -d));
+			}
+			else {
+				vars.add(this.dVarList[j]);
+				values.add(Math.abs(d));
+			}
+		}
+		
+		double[] startValues = values.stream().mapToDouble(Double::doubleValue).toArray();
+		this.cplex.addMIPStart(vars.toArray(new IloNumVar[0]), startValues, IloCplex.MIPStartEffort.Repair);
+	}
+	
+	/**
+	 * Method that returns the adversarial example created by the last solve(before it is perturbed)
+	 * @return	The adversarial example
+	 * @throws UnknownObjectException
+	 * @throws IloException
+	 */
+	public double[] getAdvExmpl() throws UnknownObjectException, IloException {
+		if (this.foldInput) {
+			double[] dPlus = this.cplex.getValues(this.dPlusList);
+			double[] dMinus = this.cplex.getValues(this.dMinusList);
+			double[] advExmpl = new double[this.input.length];
+			for (int i=0; i < advExmpl.length; i++) {
+				advExmpl[i] = this.input[i] + dPlus[i] - dMinus[i];
+			}
+			return advExmpl;
+		}
+		return this.cplex.getValues(this.encoder.getX(0));
+	}
+	
+	/**
+	 * Method used to limit the number of threads cplex is allowed to use
+	 * @param threads	The number of threads(0 lets cplex decide)
+	 * @throws IloException
+	 */
+	public void setThreads(int threads) throws IloException {
+		this.cplex.setParam(IloCplex.Param.Threads, threads);
+	}
+	
 	/**
 	 * Method that returns the objective value(total disturbance)
 	 * @return	The total disturbance
@@ -294,10 +431,13 @@ public class MILPAdvAfterImpr {
 	/**
 	 * Method that returns the gap between the best found feasible solution
 	 * and the highest lower bound
-	 * @return	The optimality gap
+	 * @return	The optimality gap(1 if no feasible solution was found)
 	 * @throws IloException
 	 */
 	public double getGap() throws IloException {
+		if (!this.cplex.isPrimalFeasible()) {
+			return 1;
+		}
 		return this.cplex.getMIPRelativeGap();
 	}
 	
@@ -314,6 +454,7 @@ public class MILPAdvAfterImpr {
 	 * @throws IloException
 	 */
 	public void cleanup() throws IloException {
+		RunControl.unregister(this.cplex);
 		this.cplex.clearModel();
 		this.cplex.end();
 	}
@@ -1,14 +1,15 @@
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 
 import ilog.concert.IloConstraint;
 import ilog.concert.IloException;
 import ilog.concert.IloNumExpr;
 import ilog.concert.IloNumVar;
+import ilog.concert.IloRange;
 import ilog.cplex.IloCplex;
 import ilog.cplex.IloCplex.UnknownObjectException;
 
@@ -26,12 +27,22 @@ public class MILPAdversarial {
 	private double maxDeviation;
 	
 	private IloNumVar[] dVarList;
-	private Map<Layer,IloNumVar[]> xVarMap;
-	private Map<Layer,IloNumVar[]> sVarMap;
-	private Map<Layer,IloNumVar[]> zVarMap;
+	private IloNumVar[] dPlusList;
+	private IloNumVar[] dMinusList;
+	private NetworkEncoder encoder;
 	
-	private IloConstraint[] targetConstr;
-	private IloConstraint[] defDConstr;
+	private IloRange[] targetConstr;
+	private IloRange[] defDConstr;
+	
+	private IloNumVar[] tVarList;
+	private IloRange selectConstr;
+	
+	private boolean localBounds;
+	private boolean foldInput;
+	
+	private PGDAttack attack;
+	private BranchingRank branching;
+	private MIPStartStore startStore;
 	
 	
 
@@ -45,32 +56,120 @@ public class MILPAdversarial {
 	 * @throws IloException		
 	 */
 	public MILPAdversarial(DNN dnn, double[] input, int targetDigit, double maxDeviation, boolean gapTolerance) throws IloException {
+		this(dnn, input, targetDigit, maxDeviation, gapTolerance, false, ReLUFormulation.INDICATOR);
+	}
+	
+	/**
+	 * Initialization of MILP model used to create adversarial examples that can use bounds 
+	 * which only hold for inputs within the maximum deviation of the original image
+	 * @param dnn				The DNN that adversarial examples need to be created for
+	 * @param input				The original image
+	 * @param targetDigit		The digit that the adversarial example needs to be classified as
+	 * @param maxDeviation		The maximum deviation from the original image
+	 * @param gapTolerance		If the model should be solved using a 1% optimality gap
+	 * @param localBounds		If the bounds should be tightened around the original image
+	 * @throws IloException
+	 */
+	public MILPAdversarial(DNN dnn, double[] input, int targetDigit, double maxDeviation, boolean gapTolerance, boolean localBounds) throws IloException {
+		this(dnn, input, targetDigit, maxDeviation, gapTolerance, localBounds, ReLUFormulation.INDICATOR);
+	}
+	
+	/**
+	 * Initialization of MILP model used to create adversarial examples that can use bounds 
+	 * which only hold for inputs within the maximum deviation of the original image
+	 * and a chosen formulation of the activation functions
+	 * @param dnn				The DNN that adversarial examples need to be created for
+	 * @param input				The original image
+	 * @param targetDigit		The digit that the adversarial example needs to be classified as
+	 * @param maxDeviation		The maximum deviation from the original image
+	 * @param gapTolerance		If the model should be solved using a 1% optimality gap
+	 * @param localBounds		If the bounds should be tightened around the original image
+	 * @param formulation		The formulation used for the relation between x, s and z
+	 * @throws IloException
+	 */
+	public MILPAdversarial(DNN dnn, double[] input, int targetDigit, double maxDeviation, boolean gapTolerance, boolean localBounds, ReLUFormulation formulation) throws IloException {
+		this(dnn, maxDeviation, gapTolerance, localBounds, formulation);
+		setImage(input);
+		setTargetDigit(targetDigit);
+	}
+	
+	/**
+	 * Initialization of MILP model that can be reused to create adversarial examples for
+	 * several images, the network is only encoded once and solveFor sets the image and target
+	 * @param dnn				The DNN that adversarial examples need to be created for
+	 * @param maxDeviation		The maximum deviation from the original image
+	 * @param gapTolerance		If the model should be solved using a 1% optimality gap
+	 * @throws IloException
+	 */
+	public MILPAdversarial(DNN dnn, double maxDeviation, boolean gapTolerance) throws IloException {
+		this(dnn, maxDeviation, gapTolerance, false, ReLUFormulation.INDICATOR);
+	}
+	
+	/**
+	 * Initialization of MILP model that can be reused to create adversarial examples for
+	 * several images, the network is only encoded once and solveFor sets the image and target
+	 * @param dnn				The DNN that adversarial examples need to be created for
+	 * @param maxDeviation		The maximum deviation from the original image
+	 * @param gapTolerance		If the model should be solved using a 1% optimality gap
+	 * @param localBounds		If the bounds should be tightened around every image
+	 * @param formulation		The formulation used for the relation between x, s and z
+	 * @throws IloException
+	 */
+	public MILPAdversarial(DNN dnn, double maxDeviation, boolean gapTolerance, boolean localBounds, ReLUFormulation formulation) throws IloException {
+		this(dnn, maxDeviation, gapTolerance, localBounds, formulation, false);
+	}
+	
+	/**
+	 * Initialization of MILP model that can be reused to create adversarial examples for
+	 * several images, which can fold the image into the definitions of the first hidden layer.
+	 * The folded model has no variables for the input layer, the adversarial example is the image
+	 * plus the deviations d+ - d-, whose bounds impose the maximum deviation
+	 * @param dnn				The DNN that adversarial examples need to be created for
+	 * @param maxDeviation		The maximum deviation from the original image
+	 * @param gapTolerance		If the model should be solved using a 1% optimality gap
+	 * @param localBounds		If the bounds should be tightened around every image
+	 * @param formulation		The formulation used for the relation between x, s and z
+	 * @param foldInput			If the image should be folded into the first hidden layer
+	 * @throws IloException
+	 */
+	public MILPAdversarial(DNN dnn, double maxDeviation, boolean gapTolerance, boolean localBounds, ReLUFormulation formulation, boolean foldInput) throws IloException {
 		this.cplex = new IloCplex();
+		RunControl.register(this.cplex);
 		// stop cplex from printing the output
 		this.cplex.setOut(null);
 		
 		// store the relevant data
 		this.dnn = dnn;
-		this.input = input;
-		this.targetDigit = targetDigit;
 		this.maxDeviation = maxDeviation;
+		this.localBounds = localBounds;
+		this.foldInput = foldInput;
 		
-		// create maps to store the variables
-		this.dVarList = new IloNumVar[input.length];
-		this.xVarMap = new HashMap<>();
-		this.sVarMap = new HashMap<>();
-		this.zVarMap = new HashMap<>();
+		// create the encoder that stores the variables of the DNN
+		int nInput = dnn.getLayers()[0].getN();
+		this.dVarList = new IloNumVar[nInput];
+		this.dPlusList = new IloNumVar[nInput];
+		this.dMinusList = new IloNumVar[nInput];
+		this.encoder = new NetworkEncoder(this.cplex, dnn, formulation);
 		
 		// create the variables and add the objective
 		createVariables();
 		addObjective();
 		
-		// add the constraints
-		addDefNeuron();
-		addXSZConstraints();
+		// add the constraints, the constraints that depend on the image and target are set by setImage
+		int K = dnn.getLayers().length - 1;
+		if (foldInput) {
+			this.encoder.addDefNeuron1(this.dPlusList, this.dMinusList, null);
+			this.encoder.addDefNeuron(2, K);
+		}
+		else {
+			this.encoder.addDefNeuron(1, K);
+		}
+		this.encoder.addXSZConstraints(1, K);
 		addTargetClass();
-		addDefD();
-		addMaxDeviation();
+		if (!foldInput) {
+			addDefD();
+			addMaxDeviation();
+		}
 		
 		// set a time limit of 300 seconds
 		this.cplex.setParam(IloCplex.Param.TimeLimit, 300);
@@ -85,32 +184,22 @@ public class MILPAdversarial {
 	 * @throws IloException
 	 */
 	private void createVariables() throws IloException {
-		// for all layers of the DNN
-		for (Layer k: this.dnn.getLayers()) {
-			// create lists for the x and s variables in this layer
-			this.xVarMap.put(k, new IloNumVar[k.getN()]);
-			this.sVarMap.put(k, new IloNumVar[k.getN()]);
-			if (k != this.dnn.getLayers()[0]) {
-				// create a list for the z variable if this layer is not the input layer
-				this.zVarMap.put(k, new IloNumVar[k.getN()]);
-			}
-			
-			// get the bounds of x and s
-			double[] xLB = k.getLowerBoundsX();
-			double[] xUB = k.getUpperBoundsX();
-			double[] sLB = k.getLowerBoundsS();
-			double[] sUB = k.getUpperBoundsS();
+		int K = this.dnn.getLayers().length - 1;
+		if (this.foldInput) {
+			// create the x, s and z variables for all layers except the input layer
+			this.encoder.createVariables(1, K);
 			
-			// add the variables
-			for (int i=0; i < k.getN(); i++) {
-				this.xVarMap.get(k)[i] = this.cplex.numVar(xLB[i], xUB[i]);
-				this.sVarMap.get(k)[i] = this.cplex.numVar(sLB[i], sUB[i]);
-				if (k != this.dnn.getLayers()[0]) {
-					this.zVarMap.get(k)[i] = this.cplex.boolVar();
-				}
+			// create the positive and negative deviation of every pixel, their bounds are tightened for every image
+			for (int i=0; i < this.dPlusList.length; i++) {
+				this.dPlusList[i] = this.cplex.numVar(0, this.maxDeviation);
+				this.dMinusList[i] = this.cplex.numVar(0, this.maxDeviation);
 			}
+			return;
 		}
 		
+		// create the x, s and z variables for all layers of the DNN
+		this.encoder.createVariables(0, K);
+		
 		// create the disturbance variable for every pixel
 		for (int i=0; i < this.dVarList.length; i++) {
 			this.dVarList[i] = this.cplex.numVar(0, Integer.MAX_VALUE);
@@ -122,137 +211,155 @@ public class MILPAdversarial {
 	 * @throws IloException
 	 */
 	private void addObjective() throws IloException {
-		// make minimizing the total disturbance the objective
-		IloNumExpr obj = this.cplex.sum(this.dVarList);
+		// make minimizing the total disturbance the objective, when the input is folded
+		// at most one of d+ and d- is positive in an optimal solution, so their sum is the disturbance
+		IloNumExpr obj;
+		if (this.foldInput) {
+			obj = this.cplex.sum(this.cplex.sum(this.dPlusList), this.cplex.sum(this.dMinusList));
+		}
+		else {
+			obj = this.cplex.sum(this.dVarList);
+		}
 		this.cplex.addMinimize(obj);
 	}
 	
 	/**
-	 * Method used to add the constraint that imposes the 
-	 * definition of a neuron
+	 * Method used to add the constraints that set the target classification, 
+	 * their coefficients are set when the target digit is chosen
 	 * @throws IloException
 	 */
-	private void addDefNeuron() throws IloException {
-		Layer[] layers = this.dnn.getLayers();
-		// for all layers except the input layer:
-		for (int k=1; k < layers.length; k++) {
-			// get the weights and biases for this layer
-			double[][] w = layers[k].getWeights();
-			double[] b = layers[k].getBias();
-			
-			// get the x and s variables of this layer
-			IloNumVar[] x_k = this.xVarMap.get(layers[k]);
-			IloNumVar[] s_k = this.sVarMap.get(layers[k]);
-
-			// get the x variables of the previous layer
-			IloNumVar[] x_k_1 = this.xVarMap.get(layers[k-1]);
-			
-			// for every neuron in this layer:
-			for (int j=0; j < x_k.length; j++) {
-				// set the right hand side
-				IloNumExpr rhs = this.cplex.diff(x_k[j], s_k[j]);
-				// initialize the left hand side as the bias of this neuron
-				IloNumExpr lhs = this.cplex.constant(b[j]);
-				
-				// add the sum over i of the w_k_i*x_k-1_i
-				for (int i=0; i < x_k_1.length; i++) {
-					IloNumExpr wx = this.cplex.prod(w[j][i], x_k_1[i]);
-					lhs = this.cplex.sum(lhs, wx);
-				}
-				
-				// add the constraint
-				this.cplex.addEq(lhs, rhs);
-			}
+	private void addTargetClass() throws IloException {
+		// get the x variables that correspond to the output layer
+		IloNumVar[] x_K = this.encoder.getX(this.dnn.getLayers().length - 1);
+		
+		// add an empty constraint x_t - 1.2*x_j >= 0 for every other neuron j
+		this.targetConstr = new IloRange[x_K.length-1];
+		for (int i=0; i < this.targetConstr.length; i++) {
+			this.targetConstr[i] = this.cplex.addGe(this.cplex.linearNumExpr(), 0);
 		}
 	}
 	
 	/**
-	 * Method used to add the indicator constraints that use z
+	 * Method used to make the target constraints impose that the activation of the target classifications 
+	 * neuron is at least 20% greater than activation of the other neurons, only the coefficients of the
+	 * target constraints are changed so the rest of the model stays the same
+	 * @param targetDigit		The digit that the adversarial example needs to be classified as
 	 * @throws IloException
 	 */
-	private void addXSZConstraints() throws IloException {
-		Layer[] layers = this.dnn.getLayers();
-		// for all layers except the input layer:
-		for (int k=1; k < layers.length; k++) {
-			// get the x, s and z variables of this layer
-			IloNumVar[] x = this.xVarMap.get(layers[k]);
-			IloNumVar[] s = this.sVarMap.get(layers[k]);
-			IloNumVar[] z = this.zVarMap.get(layers[k]);
-			// for all neurons in the layer:
-			for (int j=0; j < x.length; j++) {
-				// add the constraint that x equals 0 if z equals 1
-				IloConstraint zConstr1 = this.cplex.eq(z[j], 1);
-				IloConstraint xConstr = this.cplex.eq(x[j], 0);
-				IloConstraint xzConstr = this.cplex.ifThen(zConstr1, xConstr);
-				this.cplex.add(xzConstr);
-				
-				// add the constraint that s equals 0 if z equals 0
-				IloConstraint zConstr0 = this.cplex.eq(z[j], 0);
-				IloConstraint sConstr = this.cplex.eq(s[j], 0);
-				IloConstraint szConstr = this.cplex.ifThen(zConstr0, sConstr);
-				this.cplex.add(szConstr);
+	public void setTargetDigit(int targetDigit) throws IloException {
+		this.targetDigit = targetDigit;
+		if (this.selectConstr != null) {
+			// turn off the selection of the class
+			this.selectConstr.setBounds(0, 0);
+		}
+		
+		IloNumVar[] x_K = this.encoder.getX(this.dnn.getLayers().length - 1);
+		
+		// set the coefficients of all output neurons, so the coefficients of the previous target are removed
+		int i = 0;
+		for (int j=0; j < x_K.length; j++) {
+			if (j != targetDigit) {
+				double[] coefs = new double[x_K.length];
+				coefs[targetDigit] = 1;
+				coefs[j] = -1.2;
+				this.cplex.setLinearCoefs(this.targetConstr[i], coefs, x_K);
+				i++;
 			}
 		}
 	}
-	
+
 	/**
-	 * Method used to add the constraint that sets target classification
+	 * Method used to remove the coefficients of the target constraints, so they do not impose a target
 	 * @throws IloException
 	 */
-	private void addTargetClass() throws IloException {
-		// get the x variables that correspond to the output layer
-		Layer[] layers = this.dnn.getLayers(); 
-		Layer outputLayer = layers[layers.length - 1];
-		IloNumVar[] x_K = this.xVarMap.get(outputLayer);
+	private void clearTargetDigit() throws IloException {
+		this.targetDigit = -1;
 		
-		// set the left hand side
-		IloNumExpr lhs = x_K[this.targetDigit];
-
-		// store the constraints that will be added
-		this.targetConstr = new IloConstraint[x_K.length-1];
-		int i = 0;
+		IloNumVar[] x_K = this.encoder.getX(this.dnn.getLayers().length - 1);
+		for (IloRange constr: this.targetConstr) {
+			this.cplex.setLinearCoefs(constr, new double[x_K.length], x_K);
+		}
+	}
+	
+	/**
+	 * Method used to add a binary variable t_j for every output neuron that selects the class of
+	 * the adversarial example, where the activation of the selected neuron has to be at least 20% 
+	 * greater than the activation of the other neurons. The sum of t is 1 when the model is untargeted
+	 * and 0 when a target is set by the target constraints
+	 * @throws IloException
+	 */
+	private void addSelectors() throws IloException {
+		IloNumVar[] x_K = this.encoder.getX(this.dnn.getLayers().length - 1);
 		
-//		// add a lower bound on the activation of the target classification
-//		this.targetConstr = new IloConstraint[x_K.length];
-//		this.targetConstr[0] = this.cplex.addGe(lhs, this.cplex.constant(0.01));
-//		int i = 1;
+		this.tVarList = new IloNumVar[x_K.length];
+		for (int j=0; j < x_K.length; j++) {
+			this.tVarList[j] = this.cplex.boolVar();
+		}
+		this.selectConstr = this.cplex.addEq(this.cplex.sum(this.tVarList), 0);
 		
-		// add constraints that impose the activation of the target classifications neuron
-		// is at least 20% greater than activation of the other neurons
+		// add the constraints x_j - 1.2*x_i >= 0 for every other neuron i if t_j equals 1
 		for (int j=0; j < x_K.length; j++) {
-			if (j != this.targetDigit) {
-				IloNumExpr rhs = this.cplex.prod(1.2, x_K[j]);
-				
-				this.targetConstr[i] = this.cplex.addGe(lhs, rhs);
-				i++;
+			for (int i=0; i < x_K.length; i++) {
+				if (i != j) {
+					IloConstraint indicator = this.cplex.eq(this.tVarList[j], 1);
+					IloConstraint marginConstr = this.cplex.ge(this.cplex.diff(x_K[j], this.cplex.prod(1.2, x_K[i])), 0);
+					this.cplex.add(this.cplex.ifThen(indicator, marginConstr));
+				}
 			}
 		}
 	}
-
+	
 	/**
-	 * Method used to add constraint that defines the disturbance d
+	 * Method used to add constraint that defines the disturbance d, as x_0 - d <= input and 
+	 * x_0 + d >= input, where the input is set when the image is chosen
 	 * @throws IloException
 	 */
 	private void addDefD() throws IloException {
 		// get the x variables corresponding to the input layer
-		Layer inputLayer  = this.dnn.getLayers()[0];
-		IloNumVar[] x_0 = this.xVarMap.get(inputLayer);
+		IloNumVar[] x_0 = this.encoder.getX(0);
 		
 		// store the constraints that will be added
-		this.defDConstr = new IloConstraint[this.dVarList.length*2];
+		this.defDConstr = new IloRange[this.dVarList.length*2];
 		
 		// for every pixel of the input image
 		for (int j=0; j < this.dVarList.length; j++) {
-			// set the left and right hand side of the constraint
-			IloNumExpr lhs = this.dVarList[j];
-			IloNumExpr rhs = this.cplex.diff(x_0[j], this.input[j]);
-			
-			// add the constraint
-			this.defDConstr[2*j] = this.cplex.addGe(lhs, rhs);
+			// add the constraint d >= x_0 - input
+			this.defDConstr[2*j] = this.cplex.addLe(this.cplex.diff(x_0[j], this.dVarList[j]), 0);
 			
-			// multiply the left hand side by -1 to allow negative disturbances 
-			lhs = this.cplex.prod(this.cplex.constant(-1), lhs);
-			this.defDConstr[2*j + 1] =  this.cplex.addLe(lhs, rhs);
+			// add the constraint -d <= x_0 - input to allow negative disturbances 
+			this.defDConstr[2*j + 1] = this.cplex.addGe(this.cplex.sum(x_0[j], this.dVarList[j]), 0);
+		}
+	}
+	
+	/**
+	 * Method used to set the image the adversarial example is created from
+	 * @param input				The original image
+	 * @throws IloException
+	 */
+	private void setImage(double[] input) throws IloException {
+		this.input = input;
+		
+		if (this.foldInput) {
+			// the deviations may not move the pixels outside the bounds of the input layer
+			Layer inputLayer = this.dnn.getLayers()[0];
+			for (int j=0; j < this.dPlusList.length; j++) {
+				double maxIncrease = inputLayer.getUpperBoundsX()[j] - input[j];
+				double maxDecrease = input[j] - inputLayer.getLowerBoundsX()[j];
+				this.dPlusList[j].setUB(Math.max(0, Math.min(this.maxDeviation, maxIncrease)));
+				this.dMinusList[j].setUB(Math.max(0, Math.min(this.maxDeviation, maxDecrease)));
+			}
+			this.encoder.setInput1(input);
+		}
+		else {
+			// move the image to the bounds of the constraints that define d
+			for (int j=0; j < this.dVarList.length; j++) {
+				this.defDConstr[2*j].setUB(input[j]);
+				this.defDConstr[2*j + 1].setLB(input[j]);
+			}
+		}
+		
+		if (this.localBounds) {
+			this.encoder.setBounds(this.dnn.getLocalDNN(input, this.maxDeviation));
 		}
 	}
 	
@@ -278,14 +385,345 @@ public class MILPAdversarial {
 		// solve the model
 		this.cplex.solve();
 		
-		// print the status after solving and the objective value
-		System.out.println(this.cplex.getCplexStatus() + " " + this.cplex.getObjValue());
+		// print the status after solving and the objective value, a stopped solve may not have found a solution
+		String obj = this.cplex.isPrimalFeasible() ? " " + this.cplex.getObjValue() : "";
+		System.out.println(this.cplex.getCplexStatus() + obj);
+		
+		return isOptimal();
+	}
+	
+	/**
+	 * Method that returns if the last solve was solved to optimality or reached the optimality gap
+	 * @return	If the model was optimally solved
+	 * @throws IloException
+	 */
+	public boolean isOptimal() throws IloException {
+		return this.cplex.getCplexStatus().toString().contains("Optimal");
+	}
+	
+	/**
+	 * Method used to create an adversarial example for another image and target digit
+	 * using the same model, the starts of the previous image are removed so every image
+	 * is solved the same way as with a new model
+	 * @param input				The original image
+	 * @param targetDigit		The digit that the adversarial example needs to be classified as
+	 * @return					If the model was optimally solved or the optimality gap was reaches
+	 * @throws IloException
+	 * @throws IOException
+	 */
+	public boolean solveFor(double[] input, int targetDigit) throws IloException, IOException {
+		setImage(input);
+		setTargetDigit(targetDigit);
+		if (this.cplex.getNMIPStarts() > 0) {
+			this.cplex.deleteMIPStarts(0, this.cplex.getNMIPStarts());
+		}
+		addStoredStart();
+		addAttackStart();
+		addPatternHints();
+		boolean solved = solve();
+		storeStart(this.targetDigit);
+		return solved;
+	}
+	
+	/**
+	 * Method used to create an adversarial example for another target digit of the same image, 
+	 * the adversarial example of the previous target is used as a start that cplex repairs
+	 * @param targetDigit		The digit that the adversarial example needs to be classified as
+	 * @return					If the model was optimally solved or the optimality gap was reaches
+	 * @throws IloException
+	 * @throws IOException
+	 */
+	public boolean solveForTarget(int targetDigit) throws IloException, IOException {
+		// get the previous adversarial example before the model is changed
+		double[] previous = this.cplex.isPrimalFeasible() ? getAdvExmpl() : null;
 		
-		// check if the model was optimally solved or the optimality gap was reached
-		boolean solved = this.cplex.getCplexStatus().toString().contains("Optimal");
+		setTargetDigit(targetDigit);
+		if (this.cplex.getNMIPStarts() > 0) {
+			this.cplex.deleteMIPStarts(0, this.cplex.getNMIPStarts());
+		}
+		if (previous != null) {
+			addStart(previous);
+		}
+		addStoredStart();
+		addAttackStart();
+		addPatternHints();
+		boolean solved = solve();
+		storeStart(this.targetDigit);
 		return solved;
 	}
 	
+	/**
+	 * Method used to set the attack that searches for an adversarial example before every solve, 
+	 * which is added as a start so cplex starts with a feasible solution
+	 * @param attack	The attack(null stops using an attack)
+	 */
+	public void setAttack(PGDAttack attack) {
+		this.attack = attack;
+	}
+	
+	/**
+	 * Method used to choose if the activation pattern of the original image should guide the branching, 
+	 * the z variables get priorities ranked by the chosen rank and are first branched towards the pattern
+	 * @param branching		How the z variables are ranked(null stops using the activation pattern)
+	 */
+	public void setBranching(BranchingRank branching) {
+		this.branching = branching;
+	}
+	
+	/**
+	 * Method used to set the store the adversarial examples are saved in after every solve, 
+	 * the stored adversarial example of the image and target is added as a start before solving
+	 * @param startStore	The store(null stops using a store)
+	 */
+	public void setStartStore(MIPStartStore startStore) {
+		this.startStore = startStore;
+	}
+	
+	/**
+	 * Method used to add the stored adversarial examples of the current image and targets as starts, 
+	 * they are first moved into the box of the image as they can be stored for another maximum deviation
+	 * @throws IloException
+	 * @throws IOException
+	 */
+	private void addStoredStart() throws IloException, IOException {
+		if (this.startStore == null) {
+			return;
+		}
+		for (int target: getTargets()) {
+			double[] advExmpl = this.startStore.load(this.input, target, this.maxDeviation);
+			if (advExmpl != null) {
+				addStart(MIPStartStore.project(advExmpl, this.input, this.maxDeviation, this.dnn.getLayers()[0]), target);
+			}
+		}
+	}
+	
+	/**
+	 * Method used to store the adversarial example of the last solve if it found one
+	 * @param target	The class of the adversarial example
+	 * @throws IloException
+	 * @throws IOException
+	 */
+	private void storeStart(int target) throws IloException, IOException {
+		if (this.startStore != null && this.cplex.isPrimalFeasible()) {
+			this.startStore.store(this.input, target, this.maxDeviation, getAdvExmpl());
+		}
+	}
+	
+	/**
+	 * Method that returns the classes the adversarial example can have, which is the target digit 
+	 * or every class that can be selected when the model is untargeted
+	 * @return	The classes
+	 * @throws IloException
+	 */
+	private List<Integer> getTargets() throws IloException {
+		List<Integer> targets = new ArrayList<>();
+		if (this.targetDigit >= 0) {
+			targets.add(this.targetDigit);
+			return targets;
+		}
+		for (int j=0; j < this.tVarList.length; j++) {
+			if (this.tVarList[j].getUB() > 0.5) {
+				targets.add(j);
+			}
+		}
+		return targets;
+	}
+	
+	/**
+	 * Method used to set the branching priorities and directions of the z variables using the activation 
+	 * pattern of the original image and add the pattern as a partial start
+	 * @throws IloException
+	 */
+	private void addPatternHints() throws IloException {
+		if (this.branching == null) {
+			return;
+		}
+		Layer[] layers = this.dnn.getLayers();
+		double[][] y = this.dnn.forward(this.input);
+		
+		// get the z variables with their score and their value in the activation pattern
+		List<IloNumVar> zVars = new ArrayList<>();
+		List<Double> scores = new ArrayList<>();
+		List<Double> pattern = new ArrayList<>();
+		for (int k=1; k < layers.length; k++) {
+			IloNumVar[] z_k = this.encoder.getZ(k);
+			for (int j=0; j < z_k.length; j++) {
+				if (z_k[j] != null) {
+					zVars.add(z_k[j]);
+					scores.add(this.branching.getScore(layers[k], j, y[k][j]));
+					// z equals 1 if the neuron is inactive
+					pattern.add(y[k][j] <= 0 ? 1.0 : 0.0);
+				}
+			}
+		}
+		int n = zVars.size();
+		if (n == 0) {
+			return;
+		}
+		
+		// rank the variables by their score, variables with the same score get the same priority
+		Integer[] order = new Integer[n];
+		Arrays.setAll(order, i -> i);
+		Arrays.sort(order, (a, b) -> Double.compare(scores.get(b), scores.get(a)));
+		int[] priorities = new int[n];
+		int priority = n;
+		for (int r=0; r < n; r++) {
+			if (r > 0 && !scores.get(order[r]).equals(scores.get(order[r-1]))) {
+				priority = n - r;
+			}
+			priorities[order[r]] = priority;
+		}
+		
+		IloNumVar[] vars = zVars.toArray(new IloNumVar[0]);
+		IloCplex.BranchDirection[] directions = new IloCplex.BranchDirection[n];
+		double[] values = new double[n];
+		for (int i=0; i < n; i++) {
+			values[i] = pattern.get(i);
+			directions[i] = values[i] == 1 ? IloCplex.BranchDirection.Up : IloCplex.BranchDirection.Down;
+		}
+		this.cplex.setPriorities(vars, priorities);
+		this.cplex.setDirections(vars, directions);
+		
+		// the pattern of the original image does not reach the target, so cplex has to repair the start
+		this.cplex.addMIPStart(vars, values, IloCplex.MIPStartEffort.Repair);
+	}
+	
+	/**
+	 * Method used to add the adversarial examples found by the attack for the current image and targets as starts
+	 * @throws IloException
+	 */
+	private void addAttackStart() throws IloException {
+		if (this.attack == null) {
+			return;
+		}
+		for (int target: getTargets()) {
+			double[] advExmpl = this.attack.attack(this.input, target, this.maxDeviation);
+			if (advExmpl != null) {
+				addStart(advExmpl, target);
+			}
+		}
+	}
+	
+	/**
+	 * Method used to add an image as a start for the current image, the values of all variables
+	 * are calculated using a forward pass through the DNN and cplex repairs the start if it is infeasible
+	 * @param advExmpl		The image used as start
+	 * @throws IloException
+	 */
+	public void addStart(double[] advExmpl) throws IloException {
+		addStart(advExmpl, this.targetDigit);
+	}
+	
+	/**
+	 * Method used to add an image as a start for the current image that should be classified as a target,
+	 * when the model is untargeted the target is also used to select the class of the start
+	 * @param advExmpl		The image used as start
+	 * @param target		The class the image should be classified as
+	 * @throws IloException
+	 */
+	private void addStart(double[] advExmpl, int target) throws IloException {
+		List<IloNumVar> vars = new ArrayList<>();
+		List<Double> values = new ArrayList<>();
+		this.encoder.addStartValues(this.dnn.forward(advExmpl), vars, values);
+		
+		if (this.targetDigit < 0 && this.tVarList != null) {
+			for (int j=0; j < this.tVarList.length; j++) {
+				vars.add(this.tVarList[j]);
+				values.add(j == target ? 1.0 : 0.0);
+			}
+		}
+		
+		// add the disturbance of every pixel
+		for (int j=0; j < advExmpl.length; j++) {
+			double d = advExmpl[j] - this.input[j];
+			if (this.foldInput) {
+				vars.add(this.dPlusList[j]);
+				values.add(Math.max(0, d));
+				vars.add(this.dMinusList[j]);
+				values.add(Math.max(0, -d));
+			}
+			else {
+				vars.add(this.dVarList[j]);
+				values.add(Math.abs(d));
+			}
+		}
+		
+		double[] startValues = values.stream().mapToDouble(Double::doubleValue).toArray();
+		this.cplex.addMIPStart(vars.toArray(new IloNumVar[0]), startValues, IloCplex.MIPStartEffort.Repair);
+	}
+	
+	/**
+	 * Method used to create the adversarial example with the minimum disturbance that is classified as 
+	 * any digit other than the classification of the image, so a single model is solved instead of one per target
+	 * @param input				The original image
+	 * @param digit				The classification of the original image
+	 * @return					The class of the adversarial example(-1 if no adversarial example was found), 
+	 * 							isOptimal returns if it is the closest adversarial example
+	 * @throws IloException
+	 * @throws IOException
+	 */
+	public int solveUntargeted(double[] input, int digit) throws IloException, IOException {
+		if (this.tVarList == null) {
+			addSelectors();
+		}
+		setImage(input);
+		clearTargetDigit();
+		
+		// select exactly one class, which cannot be the classification of the image
+		this.selectConstr.setBounds(1, 1);
+		for (int j=0; j < this.tVarList.length; j++) {
+			this.tVarList[j].setUB(j == digit ? 0 : 1);
+		}
+		if (this.cplex.getNMIPStarts() > 0) {
+			this.cplex.deleteMIPStarts(0, this.cplex.getNMIPStarts());
+		}
+		addStoredStart();
+		addAttackStart();
+		addPatternHints();
+		solve();
+		if (!this.cplex.isPrimalFeasible()) {
+			return -1;
+		}
+		
+		// return the selected class and store the adversarial example for it
+		double[] t = this.cplex.getValues(this.tVarList);
+		for (int j=0; j < t.length; j++) {
+			if (t[j] > 0.5) {
+				storeStart(j);
+				return j;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Method that returns the adversarial example created by the last solve
+	 * @return	The adversarial example
+	 * @throws UnknownObjectException
+	 * @throws IloException
+	 */
+	public double[] getAdvExmpl() throws UnknownObjectException, IloException {
+		if (this.foldInput) {
+			double[] dPlus = this.cplex.getValues(this.dPlusList);
+			double[] dMinus = this.cplex.getValues(this.dMinusList);
+			double[] advExmpl = new double[this.input.length];
+			for (int i=0; i < advExmpl.length; i++) {
+				advExmpl[i] = this.input[i] + dPlus[i] - dMinus[i];
+			}
+			return advExmpl;
+		}
+		return this.cplex.getValues(this.encoder.getX(0));
+	}
+	
+	/**
+	 * Method used to limit the number of threads cplex is allowed to use
+	 * @param threads	The number of threads(0 lets cplex decide)
+	 * @throws IloException
+	 */
+	public void setThreads(int threads) throws IloException {
+		this.cplex.setParam(IloCplex.Param.Threads, threads);
+	}
+	
 	/**
 	 * Method that returns the objective value(total disturbance)
 	 * @return	The total disturbance
@@ -298,10 +736,13 @@ public class MILPAdversarial {
 	/**
 	 * Method that returns the gap between the best found feasible solution
 	 * and the highest lower bound
-	 * @return	The optimality gap
+	 * @return	The optimality gap(1 if no feasible solution was found)
 	 * @throws IloException
 	 */
 	public double getGap() throws IloException {
+		if (!this.cplex.isPrimalFeasible()) {
+			return 1;
+		}
 		return this.cplex.getMIPRelativeGap();
 	}
 	
@@ -313,11 +754,32 @@ public class MILPAdversarial {
 		return this.cplex.getIncumbentNode();
 	}
 	
+	/**
+	 * Method that returns the total number of branching nodes processed by the last solve
+	 * @return	The number of processed nodes
+	 */
+	public int getTotalNodes() {
+		return this.cplex.getNnodes();
+	}
+	
+	/**
+	 * Method used to write the model for the current image and target with its incumbent to a directory,
+	 * the name consists of the DNN, the hash of the image, the target and the maximum deviation
+	 * @param directory		The directory the model is written to
+	 * @return				The path of the snapshot without an extension
+	 * @throws IloException
+	 */
+	public String exportModel(String directory) throws IloException {
+		String name = "adversarial_" + this.dnn.getName() + "_" + ModelSnapshot.hash(this.input) + "_" + this.targetDigit + "_" + this.maxDeviation;
+		return ModelSnapshot.export(this.cplex, directory, name);
+	}
+	
 	/**
 	 * Method used to clean up and clear the model
 	 * @throws IloException
 	 */
 	public void cleanup() throws IloException {
+		RunControl.unregister(this.cplex);
 		this.cplex.clearModel();
 		this.cplex.end();
 	}
@@ -336,14 +798,13 @@ public class MILPAdversarial {
 		BufferedWriter w = new BufferedWriter(new FileWriter(filename));
 		BufferedWriter wOriginal = new BufferedWriter(new FileWriter(filenameOriginal));
 		
-		// get the x variables corresponding to the input layer(the adversarial example)
-		Layer inputLayer  = this.dnn.getLayers()[0];
-		IloNumVar[] x_0 = this.xVarMap.get(inputLayer);
+		// get the adversarial example
+		double[] advExmpl = getAdvExmpl();
 		
 		// write the image as a 28X28 array of doubles
 		for (int y=0; y < 28; y++) {
 			for (int x=0; x < 28; x++) {
-				w.write(this.cplex.getValue(x_0[28*y + x]) + "");
+				w.write(advExmpl[28*y + x] + "");
 				wOriginal.write(this.input[28*y + x] + "");
 				if (x < 27) {
 					w.write(",");
@@ -369,13 +830,12 @@ public class MILPAdversarial {
 	 */
 	public void writeAdvExmpl(BufferedWriter w) throws UnknownObjectException, IloException, IOException{
 		// get the adversarial example
-		Layer inputLayer  = this.dnn.getLayers()[0];
-		IloNumVar[] x_0 = this.xVarMap.get(inputLayer);
+		double[] advExmpl = getAdvExmpl();
 		
 		// write it to the file
-		for (int y=0; y < x_0.length; y++) {
-			w.write(Double.toString(this.cplex.getValue(x_0[y])));
-			if (y < x_0.length - 1) {
+		for (int y=0; y < advExmpl.length; y++) {
+			w.write(Double.toString(advExmpl[y]));
+			if (y < advExmpl.length - 1) {
 				w.write(",");
 			}
 		}
@@ -384,7 +844,8 @@ public class MILPAdversarial {
 	}
 	
 	/**
-	 * Method used to get the activation of the neurons in the output layer
+	 * Method used to get the activation of the neurons in the output layer, 
+	 * in the order of the output layer of the original DNN if the DNN was reduced
 	 * @return
 	 * @throws UnknownObjectException
 	 * @throws IloException
@@ -394,19 +855,20 @@ public class MILPAdversarial {
 		double[] output = new double[10];
 		
 		// get the x variables corresponding to the output layer
-		Layer outputLayer  = this.dnn.getLayers()[this.dnn.getLayers().length-1];
-		IloNumVar[] x_K = this.xVarMap.get(outputLayer);
+		IloNumVar[] x_K = this.encoder.getX(this.dnn.getLayers().length-1);
 		
 		// store the value of the x variables in the array as a double
 		for (int j=0; j < x_K.length; j++) {
 			output[j] = this.cplex.getValue(x_K[j]);
 		}
 		
-		return output;
+		return this.dnn.toOriginal(this.dnn.getNLayers(), output);
 	}
 	
 	/**
-	 * Method used to print the output of the neurons in one of the layers
+	 * Method used to print the output of the neurons in one of the layers, if the DNN was reduced 
+	 * the output is printed for the neurons of the original layer, where the removed neurons have x equal to 0 
+	 * and an unknown s(NaN)
 	 * @param k		The layer that should be printed
 	 * @param x		Should the positive(x) values be printed or the negative(s)?(true prints x)
 	 * @throws UnknownObjectException
@@ -418,10 +880,10 @@ public class MILPAdversarial {
 		double[] output = new double[layer_k.getN()];
 		IloNumVar[] xs_k = null;
 		if (x) {
-			xs_k = this.xVarMap.get(layer_k);
+			xs_k = this.encoder.getX(k);
 		}
 		else {
-			xs_k = this.sVarMap.get(layer_k);
+			xs_k = this.encoder.getS(k);
 		}
 		
 		// store the values of the variables in a double array
@@ -429,8 +891,9 @@ public class MILPAdversarial {
 			output[j] = this.cplex.getValue(xs_k[j]);
 		}
 		
-		// print the array with the index of the layer
-		System.out.println(k + ": " + Arrays.toString(output));
+		// print the array with the index of the layer in the original DNN
+		output = this.dnn.toOriginal(k, output, x ? 0 : Double.NaN);
+		System.out.println(this.dnn.getOriginalLayer(k) + ": " + Arrays.toString(output));
 	}
 	
 }
@@ -1,178 +1,222 @@
-import java.util.HashMap;
-import java.util.Map;
-
-import ilog.concert.IloConstraint;
 import ilog.concert.IloException;
-import ilog.concert.IloNumExpr;
 import ilog.concert.IloNumVar;
 import ilog.concert.IloObjective;
+import ilog.concert.IloObjectiveSense;
+import ilog.concert.IloRange;
 import ilog.cplex.IloCplex;
 
 
 /**
- * Class used to model the MILP formulation used to calculate tightened bounds
+ * Class used to model the MILP formulation used to calculate tightened bounds.
+ * The layers before the last layer are encoded once, after which the neurons of
+ * the last layer are bounded one at a time by only changing the definition of
+ * the bounded neuron and the objective
  * @author Tim Tjhay (495230tt)
  */
 public class MILPBounds {
 	private IloCplex cplex;
 	
 	private DNN dnn;
-
-	private Map<Layer,IloNumVar[]> xVarMap;
-	private Map<Layer,IloNumVar[]> sVarMap;
-	private Map<Layer,IloNumVar[]> zVarMap;
+	private Layer boundLayer;
+	
+	private NetworkEncoder encoder;
+	
+	private IloNumVar yBound;
+	private IloRange defBoundConstr;
 	
 	private IloObjective obj;
 	
+	private int boundNeuron;
+	
+	/**
+	 * Initializes the model used to calculate the bounds on the neurons in the last layer
+	 * @param dnn			The DNN whose last layer contains the neurons that are bounded
+	 * @param timeLimit		If a time limit of 1 second should be imposed
+	 * @throws IloException
+	 */
 	public MILPBounds(DNN dnn, boolean timeLimit) throws IloException {
+		this(dnn, timeLimit, 0);
+	}
+	
+	/**
+	 * Initializes the model used to calculate the bounds on the neurons in the last layer
+	 * while limiting the number of threads cplex is allowed to use
+	 * @param dnn			The DNN whose last layer contains the neurons that are bounded
+	 * @param timeLimit		If a time limit of 1 second should be imposed
+	 * @param threads		The number of threads cplex may use(0 lets cplex decide)
+	 * @throws IloException
+	 */
+	public MILPBounds(DNN dnn, boolean timeLimit, int threads) throws IloException {
+		this(dnn, timeLimit, threads, ReLUFormulation.INDICATOR);
+	}
+	
+	/**
+	 * Initializes the model used to calculate the bounds on the neurons in the last layer
+	 * using a chosen formulation of the activation functions
+	 * @param dnn			The DNN whose last layer contains the neurons that are bounded
+	 * @param timeLimit		If a time limit of 1 second should be imposed
+	 * @param threads		The number of threads cplex may use(0 lets cplex decide)
+	 * @param formulation	The formulation used for the relation between x, s and z
+	 * @throws IloException
+	 */
+	public MILPBounds(DNN dnn, boolean timeLimit, int threads, ReLUFormulation formulation) throws IloException {
 		this.cplex = new IloCplex();
+		RunControl.register(this.cplex);
 		
 		this.dnn = dnn;
-
-		this.xVarMap = new HashMap<>();
-		this.sVarMap = new HashMap<>();
-		this.zVarMap = new HashMap<>();
+		Layer[] layers = dnn.getLayers();
+		this.boundLayer = layers[layers.length-1];
+		
+		// encode all layers except the last layer, which only gets the bounded neuron
+		this.encoder = new NetworkEncoder(this.cplex, dnn, formulation);
+		int K = layers.length - 1;
+		this.encoder.createVariables(0, K-1);
+		this.encoder.addDefNeuron(1, K-1);
+		this.encoder.addXSZConstraints(1, K-1);
 		
-		createVariables();
+		createBoundVariable();
 		
-		addDefNeuron();
-		addXSZIndicator();
+		addDefBoundNeuron();
+		addObjective();
 		
 		if (timeLimit) {
 			this.cplex.setParam(IloCplex.Param.TimeLimit, 1);
 		}
+		if (threads > 0) {
+			this.cplex.setParam(IloCplex.Param.Threads, threads);
+		}
 		
 		this.cplex.setOut(null);
 	}
 	
 	/**
-	 * Method used to create the variables
+	 * Method used to create the variable of the bounded neuron
 	 * @throws IloException
 	 */
-	private void createVariables() throws IloException {
-		for (Layer k: this.dnn.getLayers()) {
-			xVarMap.put(k, new IloNumVar[k.getN()]);
-			sVarMap.put(k, new IloNumVar[k.getN()]);
-			if (k != this.dnn.getLayers()[0]) {
-				zVarMap.put(k, new IloNumVar[k.getN()]);
-			}
-			double[] xLB = k.getLowerBoundsX();
-			double[] xUB = k.getUpperBoundsX();
-			double[] sLB = k.getLowerBoundsS();
-			double[] sUB = k.getUpperBoundsS();
-			
-			for (int i=0; i < k.getN(); i++) {
-				xVarMap.get(k)[i] = this.cplex.numVar(xLB[i], xUB[i]);
-				sVarMap.get(k)[i] = this.cplex.numVar(sLB[i], sUB[i]);
-				if (k != this.dnn.getLayers()[0]) {
-					zVarMap.get(k)[i] = this.cplex.boolVar();
-				}
-			}
-		}
+	private void createBoundVariable() throws IloException {
+		// the bounded neuron is only represented by its input, as the activation function
+		// does not have to be modelled to bound x and s, so it also does not need a z variable
+		this.yBound = this.cplex.numVar(Integer.MIN_VALUE, Integer.MAX_VALUE);
 	}
 	
 	/**
-	 * Method used to add maximizing the x variable of 
-	 * the neuron in the last layer as the objective
+	 * Method used to add optimizing the input of the bounded neuron as the objective
 	 * @throws IloException
 	 */
-	private void addObjectiveX() throws IloException {
-		Layer[] layers = this.dnn.getLayers();
-		Layer toMax = layers[layers.length-1];
-		IloNumVar x = this.xVarMap.get(toMax)[0]; 
-		this.obj = this.cplex.addMaximize(x);
+	private void addObjective() throws IloException {
+		this.obj = this.cplex.addMaximize(this.yBound);
 	}
 	
 	/**
-	 * Method used to add maximizing the x variable of 
-	 * the neuron in the last layer as the objective
+	 * Method used to add the definition of the input of the bounded neuron as
+	 * y - w*x_k-1 = b, so only its coefficients and bounds
+	 * have to be changed to bound another neuron
 	 * @throws IloException
 	 */
-	private void addObjectiveS() throws IloException {
-		Layer[] layers = this.dnn.getLayers();
-		Layer toMax = layers[layers.length-1];
-		IloNumVar s = this.sVarMap.get(toMax)[0]; 
-		this.obj = this.cplex.addMaximize(s);
+	private void addDefBoundNeuron() throws IloException {
+		// the weights of the previous layer are added when a neuron is chosen
+		this.defBoundConstr = this.cplex.addEq(this.yBound, 0);
 	}
 	
 	/**
-	 * Method used to add the constraint that imposes the 
-	 * definition of a neuron
+	 * Method used to make the bounded neuron represent neuron j of the last layer,
+	 * when weights of the last layer were pruned the definition gets a range as wide as the maximum error
+	 * @param j		The index of the neuron in the last layer
 	 * @throws IloException
 	 */
-	private void addDefNeuron() throws IloException {
+	private void setBoundNeuron(int j) throws IloException {
+		this.boundNeuron = j;
 		Layer[] layers = this.dnn.getLayers();
-		for (int k=1; k < layers.length; k++) {
-			double[][] w = layers[k].getWeights();
-			double[] b = layers[k].getBias();
-			
-			IloNumVar[] x = this.xVarMap.get(layers[k]);
-			IloNumVar[] x_k_1 = this.xVarMap.get(layers[k-1]);
-			IloNumVar[] s = this.sVarMap.get(layers[k]);
-			for (int j=0; j < x.length; j++) {
-				IloNumExpr rhs = this.cplex.diff(x[j], s[j]);
-				IloNumExpr lhs = this.cplex.constant(b[j]);
-				
-				for (int i=0; i < x_k_1.length; i++) {
-					IloNumExpr wx = this.cplex.prod(w[j][i], x_k_1[i]);
-					lhs = this.cplex.sum(lhs, wx);
-				}
-				
-				cplex.addEq(lhs, rhs);
-			}
+		IloNumVar[] x_k_1 = this.encoder.getX(layers.length-2);
+		
+		// move the nonzero weights to the left hand side and the bias to the right hand side
+		double[] coefs = new double[x_k_1.length];
+		int[] columns = this.boundLayer.getColumns();
+		double[] values = this.boundLayer.getValues();
+		int[] rowStart = this.boundLayer.getRowStart();
+		for (int h=rowStart[j]; h < rowStart[j+1]; h++) {
+			coefs[columns[h]] = -values[h];
 		}
+		this.cplex.setLinearCoefs(this.defBoundConstr, coefs, x_k_1);
+		
+		double b_j = this.boundLayer.getBias()[j];
+		double error = this.boundLayer.getPruningError(j, layers[layers.length-2].getUpperBoundsX());
+		this.defBoundConstr.setBounds(b_j - error, b_j + error);
 	}
-
+	
 	/**
-	 * Method used to add the indicator constraints that use z
+	 * Method used to set the time limit of every solve
+	 * @param seconds	The time limit in seconds
 	 * @throws IloException
 	 */
-	private void addXSZIndicator() throws IloException {
-		Layer[] layers = this.dnn.getLayers();
-		for (int k=1; k < layers.length; k++) {
-			IloNumVar[] x = this.xVarMap.get(layers[k]);
-			IloNumVar[] s = this.sVarMap.get(layers[k]);
-			IloNumVar[] z = this.zVarMap.get(layers[k]);
-			for (int j=0; j < x.length; j++) {
-				IloConstraint zConstr1 = this.cplex.eq(z[j], 1);
-				IloConstraint xConstr = this.cplex.eq(x[j], 0);
-				IloConstraint xzConstr = this.cplex.ifThen(zConstr1, xConstr);
-				this.cplex.add(xzConstr);
-				
-				IloConstraint zConstr0 = this.cplex.eq(z[j], 0);
-				IloConstraint sConstr = this.cplex.eq(s[j], 0);
-				IloConstraint szConstr = this.cplex.ifThen(zConstr0, sConstr);
-				this.cplex.add(szConstr);
-			}
-		}
+	public void setTimeLimit(double seconds) throws IloException {
+		this.cplex.setParam(IloCplex.Param.TimeLimit, seconds);
 	}
 	
 	/**
-	 * Method used to get the upper bound on the 
-	 * x and s variable of the neuron in the last layer
-	 * @return	The upper bounds
+	 * Method used to get the bounds on the
+	 * x and s variable of neuron j in the last layer, 
+	 * x is at most the maximum input of the neuron and 
+	 * s at most minus the minimum input, while a positive minimum input 
+	 * is a lower bound on x and a negative maximum input a lower bound on s
+	 * @param j		The index of the neuron in the last layer
+	 * @return		The bounds(xUB, sUB, xLB, sLB)
 	 * @throws IloException
 	 */
-	public double[] getUpperBounds() throws IloException {
-		double[] boundsXS = new double[2];
-		// get the upper bound on x
-		addObjectiveX();
-		this.cplex.solve();
-		boundsXS[0] = this.cplex.getBestObjValue();
-		this.cplex.delete(this.obj);
-		this.cplex.clearCuts();
-		// get the upper bound on s
-		addObjectiveS();
-		this.cplex.solve();
-		boundsXS[1] = this.cplex.getBestObjValue();
+	public double[] getBounds(int j) throws IloException {
+		setBoundNeuron(j);
+		
+		double[] boundsXS = new double[4];
+		// get the upper bound on x by maximizing the input
+		this.obj.setSense(IloObjectiveSense.Maximize);
+		double maxInput = solveBound(Double.POSITIVE_INFINITY);
+		boundsXS[0] = Math.max(0, maxInput);
+		boundsXS[3] = Math.max(0, -maxInput);
+		// get the upper bound on s by minimizing the input in the same model
+		this.obj.setSense(IloObjectiveSense.Minimize);
+		double minInput = solveBound(Double.NEGATIVE_INFINITY);
+		boundsXS[1] = Math.max(0, -minInput);
+		boundsXS[2] = Math.max(0, minInput);
 		return boundsXS;
 	}
 	
+	/**
+	 * Method used to solve the model and get a valid bound on the objective. The best bound of a MIP is valid
+	 * even if the time limit was reached, but cplex does not calculate a best bound for an LP, which the model is
+	 * when all neurons of the previous layers are stable, so for an LP the objective value is only used if it is optimal
+	 * @param noBound	The bound that is returned when no valid bound was found
+	 * @return			The bound on the objective
+	 * @throws IloException
+	 */
+	private double solveBound(double noBound) throws IloException {
+		this.cplex.solve();
+		if (this.cplex.isMIP()) {
+			return this.cplex.getBestObjValue();
+		}
+		if (this.cplex.getStatus() == IloCplex.Status.Optimal) {
+			return this.cplex.getObjValue();
+		}
+		return noBound;
+	}
+	
+	/**
+	 * Method used to write the model of the last bounded neuron to a directory, 
+	 * the name consists of the DNN whose last layer is bounded and the index of the neuron
+	 * @param directory		The directory the model is written to
+	 * @return				The path of the snapshot without an extension
+	 * @throws IloException
+	 */
+	public String exportModel(String directory) throws IloException {
+		String name = "bounds_" + this.dnn.getName() + "_" + this.boundNeuron;
+		return ModelSnapshot.export(this.cplex, directory, name);
+	}
+	
 	/**
 	 * Method used to clean up and clear the model
 	 * @throws IloException
 	 */
 	public void cleanup() throws IloException {
+		RunControl.unregister(this.cplex);
 		this.cplex.clearModel();
 		this.cplex.end();
 	}
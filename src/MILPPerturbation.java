@@ -2,10 +2,6 @@ import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
 
 import ilog.concert.IloConstraint;
 import ilog.concert.IloException;
@@ -26,9 +22,7 @@ public class MILPPerturbation {
 	private double[][] input;
 	private int[] classification;
 
-	private List<Map<Layer,IloNumVar[]>> xVarMaps;
-	private List<Map<Layer,IloNumVar[]>> sVarMaps;
-	private List<Map<Layer,IloNumVar[]>> zVarMaps;
+	private NetworkEncoder[] encoders;
 
 	private IloNumVar[] pVarList;
 	private IloNumVar[] qVarList;
@@ -39,6 +33,9 @@ public class MILPPerturbation {
 	
 	private boolean addWeights;
 	private boolean addDisturbance;
+	private boolean minDist;
+
+	private ReLUFormulation formulation;
 
 
 	/**
@@ -52,16 +49,31 @@ public class MILPPerturbation {
 	 * @throws IloException
 	 */
 	public MILPPerturbation(DNN dnn, double[][] input, int[] classification, boolean addWeights, boolean addDisturbance, boolean minDist) throws IloException {
+		this(dnn, input, classification, addWeights, addDisturbance, minDist, ReLUFormulation.INDICATOR);
+	}
+
+	/**
+	 * Initializes the model that is used to create the perturbation
+	 * using a chosen formulation of the activation functions
+	 * @param dnn				The used DNN
+	 * @param input				The training data images
+	 * @param classification	The classification of the training data
+	 * @param addWeights		If weights should be added
+	 * @param addDisturbance	If disturbances should be added
+	 * @param minDist			If the minimum distance variation should be applied
+	 * @param formulation		The formulation used for the relation between x, s and z
+	 * @throws IloException
+	 */
+	public MILPPerturbation(DNN dnn, double[][] input, int[] classification, boolean addWeights, boolean addDisturbance, boolean minDist, ReLUFormulation formulation) throws IloException {
 		this.cplex = new IloCplex();
+		RunControl.register(this.cplex);
 //		this.cplex.setOut(null);
 
 		this.dnn = dnn;
 		this.input = input;
 		this.classification = classification;
 
-		this.xVarMaps = new LinkedList<>();
-		this.sVarMaps = new LinkedList<>();
-		this.zVarMaps = new LinkedList<>();
+		this.encoders = new NetworkEncoder[input.length];
 
 		this.pVarList = new IloNumVar[input[0].length];
 		this.qVarList = new IloNumVar[input[0].length];
@@ -72,6 +84,8 @@ public class MILPPerturbation {
 		
 		this.addWeights = addWeights;
 		this.addDisturbance = addDisturbance;
+		this.minDist = minDist;
+		this.formulation = formulation;
 
 		createVariables();
 		addObjective(minDist);
@@ -95,39 +109,15 @@ public class MILPPerturbation {
 	 * @throws IloException
 	 */
 	private void createVariables() throws IloException {
+		int K = this.dnn.getNLayers();
 		for (int h=0; h < this.input.length; h++) {
-			this.xVarMaps.add(h, new HashMap<>());
-			this.sVarMaps.add(h, new HashMap<>());
-			this.zVarMaps.add(h, new HashMap<>());
-			Map<Layer, IloNumVar[]> xVarMap = this.xVarMaps.get(h);
-			Map<Layer, IloNumVar[]> sVarMap = this.sVarMaps.get(h);
-			Map<Layer, IloNumVar[]> zVarMap = this.zVarMaps.get(h);
-			for (Layer k: this.dnn.getLayers()) {
-				if (k == this.dnn.getLayers()[0]) {
-					continue;
-				}
-				xVarMap.put(k, new IloNumVar[k.getN()]);
-				sVarMap.put(k, new IloNumVar[k.getN()]);
-				zVarMap.put(k, new IloNumVar[k.getN()]);
-
-				double[] xLB = k.getLowerBoundsX();
-				double[] xUB = k.getUpperBoundsX();
-				double[] sLB = k.getLowerBoundsS();
-				double[] sUB = k.getUpperBoundsS();
-
-				for (int i=0; i < k.getN(); i++) {
-					xVarMap.get(k)[i] = this.cplex.numVar(xLB[i], xUB[i]);
-					sVarMap.get(k)[i] = this.cplex.numVar(sLB[i], sUB[i]);
-					if (k != this.dnn.getLayers()[0]) {
-						zVarMap.get(k)[i] = this.cplex.boolVar();
-					}
-				}
+			// every training image gets its own copy of the hidden and output layers
+			this.encoders[h] = new NetworkEncoder(this.cplex, this.dnn, this.formulation);
+			this.encoders[h].createVariables(1, K);
 
-				if (k == this.dnn.getLayers()[this.dnn.getNLayers()]) {
-					this.yUB[h] = Arrays.stream(xUB).max().getAsDouble();
-					this.yVarList[h] = this.cplex.numVar(0, this.yUB[h]);
-				}
-			}
+			double[] xUB = this.dnn.getLayers()[K].getUpperBoundsX();
+			this.yUB[h] = Arrays.stream(xUB).max().getAsDouble();
+			this.yVarList[h] = this.cplex.numVar(0, this.yUB[h]);
 
 			for (int i=0; i < this.tVarList[0].length; i++) {
 				this.tVarList[h][i] = this.cplex.boolVar();
@@ -171,28 +161,9 @@ public class MILPPerturbation {
 	 * @throws IloException
 	 */
 	private void addDefNeuron() throws IloException {
-		Layer[] layers = this.dnn.getLayers();
+		int K = this.dnn.getNLayers();
 		for (int h=0; h < this.input.length; h++) {
-			for (int k=2; k < layers.length; k++) {
-				double[][] w = layers[k].getWeights();
-				double[] b = layers[k].getBias();
-
-				IloNumVar[] x = this.xVarMaps.get(h).get(layers[k]);
-
-				IloNumVar[] x_k_1 = this.xVarMaps.get(h).get(layers[k-1]);
-				IloNumVar[] s = this.sVarMaps.get(h).get(layers[k]);
-				for (int j=0; j < x.length; j++) {
-					IloNumExpr rhs = this.cplex.diff(x[j], s[j]);
-					IloNumExpr lhs = this.cplex.constant(b[j]);
-
-					for (int i=0; i < x_k_1.length; i++) {
-						IloNumExpr wx = this.cplex.prod(w[j][i], x_k_1[i]);
-						lhs = this.cplex.sum(lhs, wx);
-					}
-
-					this.cplex.addEq(lhs, rhs);
-				}
-			}
+			this.encoders[h].addDefNeuron(2, K);
 		}
 	}
 
@@ -202,60 +173,22 @@ public class MILPPerturbation {
 	 * @throws IloException
 	 */
 	private void addDefNeuron1() throws IloException {
-		Layer[] layers = this.dnn.getLayers();
+		// the input is only multiplied by p and increased by q if weights and disturbances are added
+		IloNumVar[] p = this.addWeights ? this.pVarList : null;
+		IloNumVar[] q = this.addDisturbance ? this.qVarList : null;
 		for (int h=0; h < this.input.length; h++) {
-			double[][] w = layers[1].getWeights();
-			double[] b = layers[1].getBias();
-
-			IloNumVar[] x_1 = this.xVarMaps.get(h).get(layers[1]);
-			IloNumVar[] s = this.sVarMaps.get(h).get(layers[1]);
-
-			IloNumVar[] p = this.pVarList;
-			IloNumVar[] q = this.qVarList;
-			for (int j=0; j < x_1.length; j++) {
-				IloNumExpr rhs = this.cplex.diff(x_1[j], s[j]);
-				IloNumExpr lhs = this.cplex.constant(b[j]);
-
-				for (int i=0; i < p.length; i++) {
-					IloNumExpr x_0  = this.cplex.constant(this.input[h][i]);
-					if (this.addWeights) {
-						x_0  = this.cplex.prod(x_0, p[i]);
-					}
-					if (this.addDisturbance) {
-						x_0 = this.cplex.sum(x_0, q[i]);
-					}
-					IloNumExpr wx = this.cplex.prod(w[j][i], x_0);
-					lhs = this.cplex.sum(lhs, wx);
-				}
-
-				this.cplex.addEq(lhs, rhs);
-			}
+			this.encoders[h].addDefNeuron1(this.input[h], p, q);
 		}
 	}
 
 	/**
-	 * Method used to add the indicator constraints that use z
+	 * Method used to add the constraints that use z
 	 * @throws IloException
 	 */
 	private void addXSZConstraints() throws IloException {
-		Layer[] layers = this.dnn.getLayers();
+		int K = this.dnn.getNLayers();
 		for (int h=0; h < this.input.length; h++) {
-			for (int k=1; k < layers.length; k++) {
-				IloNumVar[] x = this.xVarMaps.get(h).get(layers[k]);
-				IloNumVar[] s = this.sVarMaps.get(h).get(layers[k]);
-				IloNumVar[] z = this.zVarMaps.get(h).get(layers[k]);
-				for (int j=0; j < x.length; j++) {
-					IloConstraint zConstr1 = this.cplex.eq(z[j], 1);
-					IloConstraint xConstr = this.cplex.eq(x[j], 0);
-					IloConstraint xzConstr = this.cplex.ifThen(zConstr1, xConstr);
-					this.cplex.add(xzConstr);
-
-					IloConstraint zConstr0 = this.cplex.eq(z[j], 0);
-					IloConstraint sConstr = this.cplex.eq(s[j], 0);
-					IloConstraint szConstr = this.cplex.ifThen(zConstr0, sConstr);
-					this.cplex.add(szConstr);
-				}
-			}
+			this.encoders[h].addXSZConstraints(1, K);
 		}
 	}
 
@@ -265,10 +198,9 @@ public class MILPPerturbation {
 	 */
 	private void addYLB() throws IloException {
 		Layer[] layers = this.dnn.getLayers();
-		Layer outputLayer = layers[layers.length - 1];
 		for (int h=0 ; h < this.input.length; h++) {
 			for (int j=0; j < 10; j++) {
-				IloNumExpr x = this.xVarMaps.get(h).get(outputLayer)[j];
+				IloNumExpr x = this.encoders[h].getX(layers.length - 1)[j];
 				if (j != this.classification[h]) {
 					x = this.cplex.prod(1.2, x);
 				}
@@ -284,9 +216,8 @@ public class MILPPerturbation {
 	 */
 	private void addYUB() throws IloException {
 		Layer[] layers = this.dnn.getLayers();
-		Layer outputLayer = layers[layers.length - 1];
 		for (int h=0 ; h < this.input.length; h++) {
-			IloNumVar[] x_h_K = this.xVarMaps.get(h).get(outputLayer);
+			IloNumVar[] x_h_K = this.encoders[h].getX(layers.length - 1);
 			for (int j=0; j < 10; j++) {
 				IloConstraint indicator = this.cplex.eq(this.tVarList[h][j], 1);
 				IloConstraint yxConstr = this.cplex.le(this.yVarList[h], x_h_K[j]);
@@ -320,6 +251,11 @@ public class MILPPerturbation {
 	public boolean solve() throws IloException {
 		this.cplex.solve();
 		boolean solved = this.cplex.getCplexStatus().toString().contains("Optimal");
+		// a stopped solve may not have found a solution to print
+		if (!this.cplex.isPrimalFeasible()) {
+			System.out.println(cplex.getCplexStatus());
+			return solved;
+		}
 		System.out.println(cplex.getCplexStatus() + " " + cplex.getObjValue());
 
 		double tot = 0;
@@ -391,10 +327,10 @@ public class MILPPerturbation {
 		IloNumVar[] xs_k = null;
 		for (int i=0; i < this.input.length; i ++) {
 			if (x) {
-				xs_k = this.xVarMaps.get(i).get(layer_k);
+				xs_k = this.encoders[i].getX(k);
 			}
 			else {
-				xs_k = this.sVarMaps.get(i).get(layer_k);
+				xs_k = this.encoders[i].getS(k);
 			}
 
 			for (int j=0; j < xs_k.length; j++) {
@@ -425,10 +361,13 @@ public class MILPPerturbation {
 	/**
 	 * Method that returns the gap between the best found feasible solution
 	 * and the highest lower bound
-	 * @return	The optimality gap
+	 * @return	The optimality gap(1 if no feasible solution was found)
 	 * @throws IloException
 	 */
 	public double getGap() throws IloException {
+		if (!this.cplex.isPrimalFeasible()) {
+			return 1;
+		}
 		return this.cplex.getMIPRelativeGap();
 	}
 	
@@ -441,11 +380,25 @@ public class MILPPerturbation {
 		return this.cplex.getIncumbentNode();
 	}
 
+	/**
+	 * Method used to write the model with its incumbent to a directory, the name consists of the DNN,
+	 * the variation of the model and a hash of the training data
+	 * @param directory		The directory the model is written to
+	 * @return				The path of the snapshot without an extension
+	 * @throws IloException
+	 */
+	public String exportModel(String directory) throws IloException {
+		String variation = (this.addWeights ? "W" : "") + (this.addDisturbance ? "D" : "") + (this.minDist ? "MinDist" : "");
+		String hash = BoundCache.hash(Arrays.deepToString(this.input).getBytes(), Arrays.toString(this.classification).getBytes());
+		String name = "perturbation_" + this.dnn.getName() + "_" + variation + "_" + hash;
+		return ModelSnapshot.export(this.cplex, directory, name);
+	}
 	/**
 	 * Method used to clean up and clear the model
 	 * @throws IloException
 	 */
 	public void cleanup() throws IloException {
+		RunControl.unregister(this.cplex);
 		this.cplex.clearModel();
 		this.cplex.end();
 	}
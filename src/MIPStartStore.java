@@ -0,0 +1,198 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Class used to store the adversarial examples of solved models on disk, so a later solve of the same image
+ * and target can start from them. The adversarial examples are stored by the hash of the image, the target
+ * and the maximum deviation, but not by the weights of the DNN, so they are also used after the DNN was retrained.
+ * Only the closest adversarial example found for a key is kept.
+ * The models turn a stored adversarial example into a start using a forward pass, which cplex repairs if it is infeasible
+ * @author Tim Tjhay (495230tt)
+ */
+public class MIPStartStore {
+	private File directory;
+	
+	/**
+	 * Initializes the store using the directory the adversarial examples are stored in
+	 * @param directory		Name of the directory the adversarial examples are stored in
+	 */
+	public MIPStartStore(String directory) {
+		this.directory = new File(directory);
+		this.directory.mkdirs();
+	}
+	
+	/**
+	 * Method that returns the stored adversarial example of an image and target, if none was stored
+	 * for the maximum deviation the one of the closest other maximum deviation is returned
+	 * @param input				The original image
+	 * @param targetDigit		The target digit
+	 * @param maxDeviation		The maximum deviation from the original image
+	 * @return					The adversarial example(null if none was stored)
+	 * @throws IOException
+	 */
+	public double[] load(double[] input, int targetDigit, double maxDeviation) throws IOException {
+		File file = getFile(input, targetDigit, maxDeviation);
+		if (!file.exists()) {
+			file = getClosestFile(input, targetDigit, maxDeviation);
+			if (file == null) {
+				return null;
+			}
+		}
+		
+		return read(file, input.length);
+	}
+	
+	/**
+	 * Method used to read a stored adversarial example
+	 * @param file		The file
+	 * @param n			The number of pixels of the image
+	 * @return			The adversarial example(null if the file does not contain an image of n pixels)
+	 * @throws IOException
+	 */
+	private static double[] read(File file, int n) throws IOException {
+		List<String> lines = Files.readAllLines(file.toPath());
+		if (lines.isEmpty()) {
+			return null;
+		}
+		double[] advExmpl = Arrays.stream(lines.get(0).split(",")).mapToDouble(Double::parseDouble).toArray();
+		if (advExmpl.length != n) {
+			return null;
+		}
+		return advExmpl;
+	}
+	
+	/**
+	 * Method that returns the disturbance of an adversarial example, which is the sum of the absolute 
+	 * deviations of the pixels from the image like the objective of the models
+	 * @param input			The original image
+	 * @param advExmpl		The adversarial example
+	 * @return				The disturbance
+	 */
+	private static double getDisturbance(double[] input, double[] advExmpl) {
+		double disturbance = 0;
+		for (int i=0; i < input.length; i++) {
+			disturbance += Math.abs(advExmpl[i] - input[i]);
+		}
+		return disturbance;
+	}
+	
+	/**
+	 * Method used to store the adversarial example of an image and target, it only replaces the stored one
+	 * if its disturbance is smaller, as a solve does not always improve on its start when the start is rejected,
+	 * the solve is stopped or the weights are different. The adversarial example is first
+	 * written to a temporary file that is then moved, so other workers never read a partially written file
+	 * @param input				The original image
+	 * @param targetDigit		The target digit
+	 * @param maxDeviation		The maximum deviation from the original image
+	 * @param advExmpl			The adversarial example
+	 * @throws IOException
+	 */
+	public void store(double[] input, int targetDigit, double maxDeviation, double[] advExmpl) throws IOException {
+		File file = getFile(input, targetDigit, maxDeviation);
+		
+		// keep the stored adversarial example if it is at least as close to the image
+		if (file.exists()) {
+			double[] stored = read(file, input.length);
+			if (stored != null && getDisturbance(input, stored) <= getDisturbance(input, advExmpl)) {
+				return;
+			}
+		}
+		
+		// write the adversarial example to a temporary file
+		File tmp = File.createTempFile(file.getName(), ".tmp", this.directory);
+		BufferedWriter w = new BufferedWriter(new FileWriter(tmp));
+		for (int i=0; i < advExmpl.length; i++) {
+			w.write(Double.toString(advExmpl[i]));
+			if (i < advExmpl.length - 1) {
+				w.write(",");
+			}
+		}
+		w.write("\n");
+		w.close();
+		
+		// replace the stored adversarial example in a single step
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	/**
+	 * Method used to move an adversarial example into the box of the image, so a stored adversarial example
+	 * of another maximum deviation or input layer only has to be repaired on the target constraints
+	 * @param advExmpl			The adversarial example
+	 * @param input				The original image
+	 * @param maxDeviation		The maximum deviation from the original image
+	 * @param inputLayer		The input layer of the DNN
+	 * @return					The adversarial example within the box
+	 */
+	public static double[] project(double[] advExmpl, double[] input, double maxDeviation, Layer inputLayer) {
+		double[] projected = new double[advExmpl.length];
+		for (int i=0; i < advExmpl.length; i++) {
+			double lb = Math.max(inputLayer.getLowerBoundsX()[i], input[i] - maxDeviation);
+			double ub = Math.min(inputLayer.getUpperBoundsX()[i], input[i] + maxDeviation);
+			projected[i] = Math.min(ub, Math.max(lb, advExmpl[i]));
+		}
+		return projected;
+	}
+	
+	/**
+	 * Method that returns the file the adversarial example of an image and target is stored in
+	 * @param input				The original image
+	 * @param targetDigit		The target digit
+	 * @param maxDeviation		The maximum deviation from the original image
+	 * @return					The file
+	 */
+	private File getFile(double[] input, int targetDigit, double maxDeviation) {
+		return new File(this.directory, getPrefix(input, targetDigit) + maxDeviation + ".csv");
+	}
+	
+	/**
+	 * Method that returns the file of the same image and target with the maximum deviation closest to the given one
+	 * @param input				The original image
+	 * @param targetDigit		The target digit
+	 * @param maxDeviation		The maximum deviation from the original image
+	 * @return					The file(null if none was stored)
+	 */
+	private File getClosestFile(double[] input, int targetDigit, double maxDeviation) {
+		String prefix = getPrefix(input, targetDigit);
+		File[] files = this.directory.listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(".csv"));
+		if (files == null) {
+			return null;
+		}
+		
+		File closest = null;
+		double minDistance = Double.POSITIVE_INFINITY;
+		for (File file: files) {
+			String name = file.getName();
+			double distance;
+			try {
+				distance = Math.abs(Double.parseDouble(name.substring(prefix.length(), name.length() - 4)) - maxDeviation);
+			}
+			catch (NumberFormatException e) {
+				// not a file of this store
+				continue;
+			}
+			if (distance < minDistance) {
+				closest = file;
+				minDistance = distance;
+			}
+		}
+		return closest;
+	}
+	
+	/**
+	 * Method that returns the start of the names of the files of an image and target
+	 * @param input				The original image
+	 * @param targetDigit		The target digit
+	 * @return					The start of the names
+	 */
+	private static String getPrefix(double[] input, int targetDigit) {
+		return "start_" + ModelSnapshot.hash(input) + "_" + targetDigit + "_";
+	}
+	
+}
@@ -3,6 +3,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.List;
 import java.util.Scanner;
 
 import ilog.concert.IloException;
@@ -21,9 +22,8 @@ public class Main {
 	 * @param args
 	 * @throws IloException
 	 * @throws IOException
-	 * @throws CloneNotSupportedException
 	 */
-	public static void main(String[] args) throws IloException, IOException, CloneNotSupportedException {
+	public static void main(String[] args) throws IloException, IOException {
 
 		// create array of architectures of DNNs that the test needs to be run for (all, 1-4, 5)
 //		int[][] architectures = {{8,8,8}, {8,8,8,8,8}, {20,10,8,8}, {20,10,8,8,8}, {20,20,10,10,10}}; 
@@ -33,6 +33,49 @@ public class Main {
 		// choose if optimalityGap should be used during test
 		boolean optimalityGap = false;
 		
+		// choose the number of neurons that are tightened at the same time during the bound tightening
+		int boundWorkers = 1;
+		
+		// choose the total time in seconds of the bound tightening of the weak model, which then refines the neurons 
+		// with the highest priority first and uses at most boundNeuronLimit seconds per neuron(0 uses a time limit on every solve instead)
+		double boundBudget = 0;
+		double boundNeuronLimit = 2;
+		
+		// choose if the bounds should also be tightened around every image
+		boolean localBounds = false;
+		
+		// choose if stored bounds should be used, this makes the measured presolve time meaningless
+		boolean useBoundCache = false;
+		
+		// choose if the neurons that are never active and the layers that are always active should be removed
+		boolean reduceNetwork = false;
+		
+		// choose the tolerance below which weights are left out of the MILP model(0 keeps all nonzero weights)
+		double pruningTolerance = 0;
+		
+		// choose the directory every solved model is written to, so it can be solved again using MainSnapshot(null writes nothing)
+		String snapshotDirectory = null;
+		
+		// choose if the image should be folded into the first hidden layer instead of using variables for the input layer
+		boolean foldInput = false;
+		
+		// choose the number of images whose adversarial examples are created at the same time
+		int experimentWorkers = 1;
+		
+		// choose if a gradient attack should search for an adversarial example that is used as a start for cplex
+		boolean heuristicStart = false;
+		
+		// choose the directory the adversarial examples are stored in, so the later models start from the adversarial examples 
+		// of the earlier models, this makes the compared solve times depend on the order of the models(null stores nothing)
+		String startStoreDirectory = null;
+		MIPStartStore startStore = startStoreDirectory == null ? null : new MIPStartStore(startStoreDirectory);
+		
+		// choose the number of seconds after which all solves are stopped and the statistics found so far are written(0 sets no deadline)
+		double runDeadline = 0;
+		RunControl.installShutdownHook();
+		RunControl.setDeadline(runDeadline);
+		ExperimentRunner runner = new ExperimentRunner(experimentWorkers);
+		
 		// open a writer to write the performance statistics and choose filename based on architectures and optimalityGap
 		BufferedWriter w = new BufferedWriter(new FileWriter("output//solveData//solveDataIndicator14.csv"));
 		
@@ -53,6 +96,9 @@ public class Main {
 			
 			// initialize the DNN using the weights
 			DNN dnn = new DNN(weightsFile, architecture.length + 1);
+			if (useBoundCache) {
+				dnn.setBoundCache(new BoundCache("output//boundCache"));
+			}
 
 			// get the original images and their classifications
 			String testdata = "input//testdata//" + archString;
@@ -75,7 +121,12 @@ public class Main {
 					// tighten the bounds depending on the used model and 
 					// keep track of the time needed to tighten these bounds
 					long startPresolve = System.currentTimeMillis();
-					dnn.calculateBounds(timeLimitBounds[h]);
+					if (timeLimitBounds[h] && boundBudget > 0) {
+						dnn.calculateBoundsWithBudget(boundBudget, boundNeuronLimit);
+					}
+					else {
+						dnn.calculateBounds(timeLimitBounds[h], boundWorkers);
+					}
 					// convert the time from milliseconds to seconds
 					presolveTime = (double) (System.currentTimeMillis() - startPresolve)/ 1000;
 				}
@@ -89,9 +140,25 @@ public class Main {
 				
 				// set the maximum deviation used while creating the adversarial examples
 				double maxDeviation = 1; 
-
-				// for all images:
-				for (int i=0; i < images.length; i++) {
+				
+				// every worker initializes the MILP model once, as only the image and target change between the images
+				DNN modelDNN = reduceNetwork ? dnn.reduce() : dnn;
+				modelDNN.prune(pruningTolerance);
+				// the lambdas need copies of the indices of the architecture and model
+				int archIndex = arch;
+				int modelIndex = h;
+				ExperimentRunner.ModelFactory<MILPAdversarial> factory = threads -> {
+					MILPAdversarial advExmplModel = new MILPAdversarial(modelDNN, maxDeviation, optimalityGap, localBounds, ReLUFormulation.INDICATOR, foldInput);
+					advExmplModel.setThreads(threads);
+					if (heuristicStart) {
+						advExmplModel.setAttack(new PGDAttack(modelDNN));
+					}
+					advExmplModel.setStartStore(startStore);
+					return advExmplModel;
+				};
+				
+				// for all images create the adversarial example and get its performance statistics(solved, time, nodes, gap, objective)
+				List<double[]> results = runner.run(images.length, factory, (advExmplModel, i) -> {
 					// get the image and calculate its target class using its 
 					// original classification
 					double[] input = images[i];
@@ -99,31 +166,48 @@ public class Main {
 					
 					// print which adversarial example is currently being created
 					// to make it possible to track progress
-					System.out.println(arch + "/" + nArchs + ": " + (i+1) + "/100	(" + (h+1) + "/3)	" + digits[i] + " to " + targetDigit + "	");
+					System.out.println(archIndex + "/" + nArchs + ": " + (i+1) + "/100	(" + (modelIndex+1) + "/3)	" + digits[i] + " to " + targetDigit + "	");
 
-					// initialize the MILP model 
-					MILPAdversarial advExmplModel = new MILPAdversarial(dnn, input, targetDigit, maxDeviation, optimalityGap); 
-					
 					// create the adversarial example by solving the MILP and keep track of time needed
 					long start = System.currentTimeMillis();
 					// store if MILP was optimally solved
-					boolean solved = advExmplModel.solve();
+					boolean solved = advExmplModel.solveFor(input, targetDigit);
 					long time = System.currentTimeMillis()-start;
 					
-					// update performance measures
-					totalTime += (double) time / 1000;
-					aveNodes += (double) advExmplModel.getNodes()/100;
-					totalGap += advExmplModel.getGap();
-
-					if (solved) {
-						nSolved++;
-						totalObj += advExmplModel.getObj();
+					if (snapshotDirectory != null) {
+						advExmplModel.exportModel(snapshotDirectory);
 					}
 					
 //					// write adversarial example to a file so an image can be made of it
 //					advExmplModel.createAdvExmpl("output//examples//adversarial//csvMaxDev2//" + digits[i] + "to" + targetDigit + ".csv", "output//examples//original//csv//" + digits[i] + "to" + targetDigit + ".csv");
-					// cleanup the model
-					advExmplModel.cleanup();
+					
+					double obj = solved ? advExmplModel.getObj() : 0;
+					return new double[] {solved ? 1 : 0, time, advExmplModel.getNodes(), advExmplModel.getGap(), obj};
+				}, MILPAdversarial::cleanup);
+				
+				// average over the images that were run, which are all images unless the run was stopped
+				int nRun = 0;
+				for (double[] result: results) {
+					if (result != null) {
+						nRun++;
+					}
+				}
+				nRun = Math.max(1, nRun);
+				
+				// update performance measures in the order of the images, skipping the images that were not run because the run was stopped,
+				// every number of nodes is divided separately like the serial run so a complete run gives the same averages
+				for (double[] result: results) {
+					if (result == null) {
+						continue;
+					}
+					totalTime += result[1] / 1000;
+					aveNodes += result[2]/nRun;
+					totalGap += result[3];
+
+					if (result[0] == 1) {
+						nSolved++;
+						totalObj += result[4];
+					}
 				}
 				
 				// get which model was used
@@ -139,12 +223,21 @@ public class Main {
 				}
 				
 				// write the model name and the statistics to the file and print it as well
-				w.write(model + "," +  nSolved + "," + totalGap + "," + aveNodes + "," + presolveTime + "," + (double) totalTime/100 + "," + (double) totalObj/nSolved + ",");
-				System.out.println(model + "," +  nSolved + "," + totalGap + "," + aveNodes + "," + presolveTime + "," + (double) totalTime/100 + "," + (double) totalObj/nSolved);
+				w.write(model + "," +  nSolved + "," + totalGap + "," + aveNodes + "," + presolveTime + "," + (double) totalTime/nRun + "," + (double) totalObj/nSolved + ",");
+				System.out.println(model + "," +  nSolved + "," + totalGap + "," + aveNodes + "," + presolveTime + "," + (double) totalTime/nRun + "," + (double) totalObj/nSolved);
+				
+				// the statistics of a stopped model only cover part of the images, so the other models are not run
+				if (RunControl.isStopped()) {
+					break;
+				}
 			}
 			// go to the next line in the file for the next DNN
 			w.write("\n ");
 			arch++;
+			
+			if (RunControl.isStopped()) {
+				break;
+			}
 		}
 		// close the writer
 		w.close();
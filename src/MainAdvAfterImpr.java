@@ -4,6 +4,7 @@ import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
 
 import ilog.concert.IloException;
@@ -22,12 +23,28 @@ public class MainAdvAfterImpr {
 	 * @param args
 	 * @throws IloException
 	 * @throws IOException
-	 * @throws CloneNotSupportedException
 	 */
-	public static void main(String[] args) throws IloException, IOException, CloneNotSupportedException {
+	public static void main(String[] args) throws IloException, IOException {
 		// create an array with the names of the files containing the (retrained) weights
 		String[] weightFiles = {"//weightsIP.csv", "//weightsPR.csv", "//weightsCR.csv"};
 
+		// choose the number of seconds after which all solves are stopped and the statistics found so far are written(0 sets no deadline)
+		double runDeadline = 0;
+		RunControl.installShutdownHook();
+		RunControl.setDeadline(runDeadline);
+		
+		// choose if the image should be folded into the first hidden layer instead of using variables for the input layer
+		boolean foldInput = false;
+		
+		// choose the number of images whose adversarial examples are created at the same time
+		int experimentWorkers = 1;
+		ExperimentRunner runner = new ExperimentRunner(experimentWorkers);
+		
+		// choose the directory the adversarial examples are stored in, so every approach starts from the adversarial examples 
+		// found using the previous weights(null stores nothing)
+		String startStoreDirectory = null;
+		MIPStartStore startStore = startStoreDirectory == null ? null : new MIPStartStore(startStoreDirectory);
+		
 		// open a writer
 		BufferedWriter w = new BufferedWriter(new FileWriter("output//solveData//solveDataAfterImpr.csv"));
 
@@ -46,6 +63,7 @@ public class MainAdvAfterImpr {
 		for (String weightFile: weightFiles) {
 			// create a DNN using the weights file and apply the bound tightening
 			DNN dnn = new DNN(directory + weightFile, 4);
+			dnn.setBoundCache(new BoundCache("output//boundCache"));
 			dnn.calculateBounds(false);
 
 			// store which is used
@@ -54,7 +72,10 @@ public class MainAdvAfterImpr {
 			if (weightFile.contains("IP")) {
 				// if the method is the perturbation method also write the performance 
 				// of the base model as the weights are the same
-				writePerformance(w, dnn, images, digits, false, perturbation, "base");
+				writePerformance(w, dnn, images, digits, false, perturbation, "base", startStore, foldInput, runner);
+				if (RunControl.isStopped()) {
+					break;
+				}
 				
 				// for the perturbation widen the input interval as an input
 				// over 1 is possible after perturbation and tighten bounds again
@@ -65,10 +86,15 @@ public class MainAdvAfterImpr {
 				dnn.calculateBounds(false);
 				
 				// write the performance
-				writePerformance(w, dnn, images, digits, true, perturbation, approach);
+				writePerformance(w, dnn, images, digits, true, perturbation, approach, startStore, foldInput, runner);
 			}
 			else {
-				writePerformance(w, dnn, images, digits, false, perturbation, approach);
+				writePerformance(w, dnn, images, digits, false, perturbation, approach, startStore, foldInput, runner);
+			}
+			
+			// the statistics of a stopped approach only cover part of the images, so the other approaches are not run
+			if (RunControl.isStopped()) {
+				break;
 			}
 		}
 		// close the writer
@@ -85,48 +111,73 @@ public class MainAdvAfterImpr {
 	 * @param perturb			If the input should be perturbed
 	 * @param perturbation		The perturbation
 	 * @param approach			The used improvement approach
+	 * @param startStore		The store of the adversarial examples used as starts(null uses no starts)
+	 * @param foldInput			If the image should be folded into the first hidden layer
+	 * @param runner			The runner that divides the images over the workers
 	 * @throws IloException		
 	 * @throws IOException		
 	 */
-	public static void writePerformance(BufferedWriter w, DNN dnn, double[][] images, int[] digits, boolean perturb, double[][] perturbation, String approach) throws IloException, IOException {
+	public static void writePerformance(BufferedWriter w, DNN dnn, double[][] images, int[] digits, boolean perturb, double[][] perturbation, String approach, MIPStartStore startStore, boolean foldInput, ExperimentRunner runner) throws IloException, IOException {
 		// initialize the statistics
 		int nSolved = 0;
 		double totalGap = 0;
 		double totalTime = 0;
 		double aveNodes = 0;
 		double totalObj = 0;
-
-		// for all original images:
-		for (int i=0; i < 100; i++) {
+		
+		// every worker initializes the model once for all its images
+		ExperimentRunner.ModelFactory<MILPAdvAfterImpr> factory = threads -> {
+			MILPAdvAfterImpr advExmplModel = new MILPAdvAfterImpr(dnn, perturb, perturbation, ReLUFormulation.INDICATOR, foldInput);
+			advExmplModel.setThreads(threads);
+			advExmplModel.setStartStore(startStore);
+			return advExmplModel;
+		};
+
+		// for all original images get the statistics(solved, time, nodes, gap, objective):
+		List<double[]> results = runner.run(100, factory, (advExmplModel, i) -> {
 			// get the image and the target classification
 			double[] input = images[i];
 			int targetDigit = (digits[i] + 5) % 10;
 			// print the progress
 			System.out.println(approach + ": " + (i+1) + "/100	" + digits[i] + " to " + targetDigit + "	");
 
-			// initialize the model
-			MILPAdvAfterImpr advExmplModel = new MILPAdvAfterImpr(dnn, input, targetDigit, perturb, perturbation); 
 			// create the adversarial example and keep track of the run time
 			long start = System.currentTimeMillis();
-			boolean solved = advExmplModel.solve();
+			boolean solved = advExmplModel.solveFor(input, targetDigit);
 			long time = System.currentTimeMillis()-start;
 			
-			// update the statistics
-			totalTime += (double) time / 1000;
-			aveNodes += (double) advExmplModel.getNodes()/100;
-			totalGap += advExmplModel.getGap();
+			double obj = solved ? advExmplModel.getObj() : 0;
+			return new double[] {solved ? 1 : 0, time, advExmplModel.getNodes(), advExmplModel.getGap(), obj};
+		}, MILPAdvAfterImpr::cleanup);
+		
+		// average over the images that were run, which are all images unless the run was stopped
+		int nRun = 0;
+		for (double[] result: results) {
+			if (result != null) {
+				nRun++;
+			}
+		}
+		nRun = Math.max(1, nRun);
+		
+		// update the statistics in the order of the images, skipping the images that were not run because the run was stopped,
+		// every number of nodes is divided separately like the serial run so a complete run gives the same averages
+		for (double[] result: results) {
+			if (result == null) {
+				continue;
+			}
+			totalTime += result[1] / 1000;
+			aveNodes += result[2]/nRun;
+			totalGap += result[3];
 
-			if (solved) {
+			if (result[0] == 1) {
 				nSolved++;
-				totalObj += advExmplModel.getObj();
+				totalObj += result[4];
 			}
-			// clean up the model
-			advExmplModel.cleanup();
 		}
 
 		// write the statistics to the file and print them
-		w.write(approach + "," +  nSolved + "," + totalGap + "," + aveNodes + "," + (double) totalTime/100 + "," + (double) totalObj/nSolved + ",");
-		System.out.println(approach + "," + nSolved + "," + totalGap + "," + aveNodes + "," + (double) totalTime/100 + "," + (double) totalObj/nSolved);
+		w.write(approach + "," +  nSolved + "," + totalGap + "," + aveNodes + "," + (double) totalTime/nRun + "," + (double) totalObj/nSolved + ",");
+		System.out.println(approach + "," + nSolved + "," + totalGap + "," + aveNodes + "," + (double) totalTime/nRun + "," + (double) totalObj/nSolved);
 	}
 
 	/**
@@ -1,6 +1,8 @@
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
 
 import ilog.concert.IloException;
 import ilog.cplex.IloCplex.UnknownObjectException;
@@ -18,12 +20,26 @@ public class MainAdvExmplSet {
 	 * @throws UnknownObjectException
 	 * @throws IloException
 	 * @throws IOException
-	 * @throws CloneNotSupportedException
 	 */
-	public static void main(String[] args) throws UnknownObjectException, IloException, IOException, CloneNotSupportedException {
+	public static void main(String[] args) throws UnknownObjectException, IloException, IOException {
 		// create an array of DNNs to create adversarial examples for
 //		int[][] architectures = {{8,8,8}, {8,8,8,8,8}, {20,10,8,8}, {20,10,8,8,8}, {20,20,10,10,10}}; 
 		int[][] architectures = {{8,8,8}}; 
+		
+		// choose if the neurons that are never active and the layers that are always active should be removed
+		boolean reduceNetwork = false;
+		
+		// choose if only the closest adversarial example of every image should be created instead of one for every other digit
+		boolean untargeted = false;
+		
+		// choose the number of images whose adversarial examples are created at the same time
+		int experimentWorkers = 1;
+		ExperimentRunner runner = new ExperimentRunner(experimentWorkers);
+		
+		// choose the number of seconds after which all solves are stopped and the adversarial examples found so far are written(0 sets no deadline)
+		double runDeadline = 0;
+		RunControl.installShutdownHook();
+		RunControl.setDeadline(runDeadline);
 
 		// for every DNN:
 		for (int[] architecture: architectures) {
@@ -38,7 +54,11 @@ public class MainAdvExmplSet {
 
 			// initialize the DNN and apply the bound tightening method without a time limit
 			DNN dnn = new DNN(weightsFile, architecture.length + 1);
+			dnn.setBoundCache(new BoundCache("output//boundCache"));
 			dnn.calculateBounds(false);
+			if (reduceNetwork) {
+				dnn = dnn.reduce();
+			}
 			
 			// open writers for the training data sets adversarial examples and their corresponding correct classification
 			BufferedWriter wAdvExmplTrain = new BufferedWriter(new FileWriter("output//advExmpls//" + archString + "//images.csv"));
@@ -50,11 +70,16 @@ public class MainAdvExmplSet {
 			int[] digitsTrain = Main.readClass(testdata + "//classificationsOrdered.csv");
 			
 			// write the adversarial examples
-			writeAdvExmpls(dnn, imagesTrain, digitsTrain, wAdvExmplTrain, wDigitsTrain);
+			writeAdvExmpls(dnn, imagesTrain, digitsTrain, wAdvExmplTrain, wDigitsTrain, untargeted, runner);
 			
 			// close the writers
 			wAdvExmplTrain.close();
 			wDigitsTrain.close();
+			
+			// a stopped run does not start on the test data set
+			if (RunControl.isStopped()) {
+				break;
+			}
 
 			// do the same for the test data set
 			BufferedWriter wAdvExmplTest = new BufferedWriter(new FileWriter("output//advExmpls//" + archString + "//imagesTest.csv"));
@@ -63,10 +88,14 @@ public class MainAdvExmplSet {
 			double[][] imagesTest = Main.readImages(testdata + "//imagesOrdered2.csv");
 			int[] digitsTest = Main.readClass(testdata + "//classificationsOrdered2.csv");
 
-			writeAdvExmpls(dnn, imagesTest, digitsTest, wAdvExmplTest, wDigitsTest);
+			writeAdvExmpls(dnn, imagesTest, digitsTest, wAdvExmplTest, wDigitsTest, untargeted, runner);
 			
 			wAdvExmplTest.close();
 			wDigitsTest.close();
+			
+			if (RunControl.isStopped()) {
+				break;
+			}
 		}
 	}
 	
@@ -77,39 +106,95 @@ public class MainAdvExmplSet {
 	 * @param digits		The classification of the images
 	 * @param wAdvExmpl		A BufferedWriter for the adversarial examples
 	 * @param wDigits		A BufferedWriter for the correct classifications
+	 * @param untargeted	If only the adversarial example with the minimum disturbance should be created for every image
+	 * @param runner		The runner that divides the images over the workers
 	 * @throws IOException
 	 * @throws IloException
 	 */
-	public static void writeAdvExmpls(DNN dnn, double[][] images, int[] digits, BufferedWriter wAdvExmpl, BufferedWriter wDigits) throws IOException, IloException {
+	public static void writeAdvExmpls(DNN dnn, double[][] images, int[] digits, BufferedWriter wAdvExmpl, BufferedWriter wDigits, boolean untargeted, ExperimentRunner runner) throws IOException, IloException {
 		// set the maximum deviation
 		double maxDeviation = 1; 
-
-		// for every original image:
-		for (int i=0; i < images.length; i++) {
-			// get the original image
-			double[] input = images[i];
+		
+		// every worker initializes the model to create the adversarial examples once for all its images
+		ExperimentRunner.ModelFactory<MILPAdversarial> factory = threads -> {
+			MILPAdversarial advExmplModel = new MILPAdversarial(dnn, maxDeviation, false);
+			advExmplModel.setThreads(threads);
+			return advExmplModel;
+		};
+		
+		// create the adversarial examples of every original image
+		List<String[]> results = runner.run(images.length, factory, (advExmplModel, i) -> {
+			return createAdvExmpls(advExmplModel, images[i], digits[i], i, images.length, untargeted);
+		}, MILPAdversarial::cleanup);
+		
+		// write the adversarial examples in the order of the images, skipping the images that were not run because the run was stopped
+		for (String[] result: results) {
+			if (result == null) {
+				continue;
+			}
+			wAdvExmpl.write(result[0]);
+			wDigits.write(result[1]);
+		}
+	}
+	
+	/**
+	 * Method used to create the adversarial examples of a single image
+	 * @param advExmplModel		The model used to create the adversarial examples
+	 * @param input				The original image
+	 * @param digit				The classification of the image
+	 * @param i					The index of the image
+	 * @param nImages			The number of images
+	 * @param untargeted		If only the adversarial example with the minimum disturbance should be created
+	 * @return					The lines of the adversarial examples and of their correct classifications
+	 * @throws IOException
+	 * @throws IloException
+	 */
+	private static String[] createAdvExmpls(MILPAdversarial advExmplModel, double[] input, int digit, int i, int nImages, boolean untargeted) throws IOException, IloException {
+		// write the adversarial examples and classifications to strings, so they can be written in the order of the images
+		StringWriter advExmpls = new StringWriter();
+		BufferedWriter wAdvExmpl = new BufferedWriter(advExmpls);
+		StringBuilder wDigits = new StringBuilder();
+		
+		if (untargeted) {
+			System.out.println((i+1) + "/" + nImages + "	" + digit + " to any	");
+			
+			// create the closest adversarial example and write it if the model was optimally solved
+			int advDigit = advExmplModel.solveUntargeted(input, digit);
+			if (advDigit >= 0) {
+				System.out.println(digit + " to " + advDigit);
+			}
+			if (advDigit >= 0 && advExmplModel.isOptimal()) {
+				advExmplModel.writeAdvExmpl(wAdvExmpl);
+				wDigits.append(digit + "\n");
+			}
+		}
+		else {
 			// for every digit that is not the correct classification:
+			boolean firstTarget = true;
 			for (int targetDigit=0; targetDigit < 10; targetDigit++) {
-				if (targetDigit != digits[i]) {
+				// the remaining targets are not solved after the run was stopped
+				if (RunControl.isStopped()) {
+					break;
+				}
+				if (targetDigit != digit) {
 					// print the progress
-					System.out.println((i+1) + "/" + images.length + "	" + digits[i] + " to " + targetDigit + "	");
-
-					// initialize the model to create the adversarial example
-					MILPAdversarial advExmplModel = new MILPAdversarial(dnn, input, targetDigit, maxDeviation, false);
+					System.out.println((i+1) + "/" + nImages + "	" + digit + " to " + targetDigit + "	");
 
-					// create the adversarial example
-					boolean solved = advExmplModel.solve();
+					// create the adversarial example, after the first target only the target constraints 
+					// are changed and the previous adversarial example is used as a start
+					boolean solved = firstTarget ? advExmplModel.solveFor(input, targetDigit) : advExmplModel.solveForTarget(targetDigit);
+					firstTarget = false;
 
-					// if the model was optimally solved write the resulting adversarial example and its correct classification to the files
+					// if the model was optimally solved write the resulting adversarial example and its correct classification
 					if (solved) {
 						advExmplModel.writeAdvExmpl(wAdvExmpl);
-						wDigits.write(digits[i] + "\n");
+						wDigits.append(digit + "\n");
 					}
-					// clean up the model
-					advExmplModel.cleanup();
 				}
 			}
 		}
+		wAdvExmpl.close();
+		return new String[] {advExmpls.toString(), wDigits.toString()};
 	}
 
 }
@@ -0,0 +1,43 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import ilog.concert.IloException;
+
+
+/**
+ * Class used to compare the number of branching nodes with and without using the activation
+ * pattern of the original image to guide the branching
+ * @author Tim Tjhay (495230tt)
+ */
+public class MainBranching {
+	
+	/**
+	 * Main method that creates the adversarial examples for the five DNNs without branching hints and using
+	 * every rank of the z variables and writes the performance statistics into a csv file
+	 * @param args
+	 * @throws IloException
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IloException, IOException {
+		// create array of architectures of DNNs that the test needs to be run for
+		int[][] architectures = {{8,8,8}, {8,8,8,8,8}, {20,10,8,8}, {20,10,8,8,8}, {20,20,10,10,10}};
+		
+		// create the variants that are compared, where null does not use the activation pattern
+		BranchingRank[] ranks = {null, BranchingRank.DEPTH, BranchingRank.WIDTH, BranchingRank.MARGIN};
+		List<Benchmark.Variant> variants = new ArrayList<>();
+		for (BranchingRank rank: ranks) {
+			String name = rank == null ? "none" : rank.toString();
+			variants.add(new Benchmark.Variant(name, true, (dnn, maxDeviation) -> {
+				// choose how the branching is guided
+				MILPAdversarial advExmplModel = new MILPAdversarial(dnn, maxDeviation, false);
+				advExmplModel.setBranching(rank);
+				return advExmplModel;
+			}));
+		}
+		
+		// count all processed nodes instead of the node of the incumbent
+		Benchmark.run("output//solveData//solveDataBranching.csv", architectures, variants, true);
+	}
+	
+}
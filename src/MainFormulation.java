@@ -0,0 +1,43 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import ilog.concert.IloException;
+
+
+/**
+ * Class used to compare the formulations of the activation functions by creating adversarial examples
+ * @author Tim Tjhay (495230tt)
+ */
+public class MainFormulation {
+	
+	/**
+	 * Main method that creates the adversarial examples for the five DNNs using every
+	 * formulation and writes the performance statistics into a csv file
+	 * @param args
+	 * @throws IloException
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IloException, IOException {
+		// create array of architectures of DNNs that the test needs to be run for
+		int[][] architectures = {{8,8,8}, {8,8,8,8,8}, {20,10,8,8}, {20,10,8,8,8}, {20,20,10,10,10}};
+		
+		// choose if optimalityGap should be used during test
+		boolean optimalityGap = false;
+		
+		// create a variant for every formulation using the initial bounds(base model) and the tightened bounds,
+		// as the tightened bounds are all finite so the hybrid formulation is only different from big-M for the base model
+		List<Benchmark.Variant> variants = new ArrayList<>();
+		for (boolean tightenBounds: new boolean[] {false, true}) {
+			for (ReLUFormulation formulation: ReLUFormulation.values()) {
+				String name = (tightenBounds ? "improved " : "base ") + formulation;
+				variants.add(new Benchmark.Variant(name, tightenBounds, (dnn, maxDeviation) -> {
+					return new MILPAdversarial(dnn, maxDeviation, optimalityGap, false, formulation);
+				}));
+			}
+		}
+		
+		Benchmark.run("output//solveData//solveDataFormulation.csv", architectures, variants, false);
+	}
+	
+}
@@ -14,10 +14,9 @@ public class MainPerturbation {
 	 * Main method used to create the perturbation and write it to a csv file
 	 * @param args
 	 * @throws IloException
-	 * @throws CloneNotSupportedException
 	 * @throws IOException
 	 */
-	public static void main(String[] args) throws IloException, CloneNotSupportedException, IOException {
+	public static void main(String[] args) throws IloException, IOException {
 		// create an array containing the DNNs the perturbation should be created for
 //		int[][] architectures = {{8,8,8}, {8,8,8,8,8}, {20,10,8,8}, {20,10,8,8,8}, {20,20,10,10,10}}; 
 		int[][] architectures = {{8,8,8}}; 
@@ -41,7 +40,8 @@ public class MainPerturbation {
 			Arrays.fill(x_0LB, -1);
 			dnn.getLayers()[0].setLowerBoundsX(x_0LB);
 			
-			// tighten the bounds
+			// tighten the bounds or use the stored bounds
+			dnn.setBoundCache(new BoundCache("output//boundCache"));
 			dnn.calculateBounds(false);
 
 			// get the training data(original images + adversarial examples)
@@ -56,7 +56,10 @@ public class MainPerturbation {
 			//create perturbations
 			// should perturbation 1 be created as the minimum distance variation
 			boolean minDist = true;
-			createPerturb1(minDist, dnn, images, classification, advExmpls, advExmplsClass);
+			
+			// choose the directory the model is written to before solving, so it can be solved again using MainSnapshot(null writes nothing)
+			String snapshotDirectory = null;
+			createPerturb1(minDist, dnn, images, classification, advExmpls, advExmplsClass, snapshotDirectory);
 //			createPerturb2(dnn, images, classification, advExmpls, advExmplsClass);
 //			createPerturbOnlyWeights(dnn, images, classification, advExmpls, advExmplsClass);
 //			createPerturbOnlyDisturbances(dnn, images, classification, advExmpls, advExmplsClass);
@@ -71,10 +74,11 @@ public class MainPerturbation {
 	 * @param classification		The classifications of the images
 	 * @param advExmpls				The adversarial examples
 	 * @param advExmplsClass		The correct classification of the adv. examples
+	 * @param snapshotDirectory		The directory the model is written to before solving(null writes nothing)
 	 * @throws IloException
 	 * @throws IOException
 	 */
-	public static void createPerturb1(boolean minDist, DNN dnn, double[][] images, int[] classification, double[][] advExmpls, int[] advExmplsClass) throws IloException, IOException {
+	public static void createPerturb1(boolean minDist, DNN dnn, double[][] images, int[] classification, double[][] advExmpls, int[] advExmplsClass, String snapshotDirectory) throws IloException, IOException {
 		// create arrays for the training data
 		double[][] trainSet = new double[30][];
 		int[] correctClass = new int[30];
@@ -107,6 +111,11 @@ public class MainPerturbation {
 		// initialize the model used to create the perturbation
 		MILPPerturbation perturbModel = new MILPPerturbation(dnn, trainSet, correctClass, true, true, minDist);
 		
+		// write the model before solving it, so it can be solved again using MainSnapshot without building it
+		if (snapshotDirectory != null) {
+			perturbModel.exportModel(snapshotDirectory);
+		}
+		
 		// create the perturbation while keeping track of the running time
 		long startTime = System.currentTimeMillis();
 		perturbModel.solve();
@@ -0,0 +1,43 @@
+import ilog.concert.IloException;
+import ilog.cplex.IloCplex;
+
+
+/**
+ * Class used to solve models that were written to disk again
+ * @author Tim Tjhay (495230tt)
+ */
+public class MainSnapshot {
+	
+	/**
+	 * Main method that solves every snapshot that is given and prints the performance statistics
+	 * @param args		The paths of the snapshots without an extension
+	 * @throws IloException
+	 */
+	public static void main(String[] args) throws IloException {
+		for (String path: args) {
+			// read the model without building it from the DNN
+			IloCplex cplex = ModelSnapshot.load(path);
+			
+			// solve the model and keep track of the time needed
+			long start = System.currentTimeMillis();
+			cplex.solve();
+			double time = (double) (System.currentTimeMillis() - start) / 1000;
+			
+			// print the statistics, the objective and gap are only available if a solution was found
+			// and the gap only for models with integer variables
+			String obj = "-";
+			String gap = "-";
+			if (cplex.isPrimalFeasible()) {
+				obj = "" + cplex.getObjValue();
+				if (cplex.isMIP()) {
+					gap = "" + cplex.getMIPRelativeGap();
+				}
+			}
+			System.out.println(path + "," + cplex.getCplexStatus() + "," + obj + "," + gap + "," + cplex.getNnodes() + "," + time);
+			
+			// cleanup the model
+			cplex.end();
+		}
+	}
+	
+}
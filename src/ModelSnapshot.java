@@ -0,0 +1,93 @@
+import java.io.File;
+import java.util.Arrays;
+
+import ilog.concert.IloException;
+import ilog.cplex.IloCplex;
+
+
+/**
+ * Class used to write a model to disk and read it again, so a single model can be solved
+ * again without reading the weights and tightening the bounds of the DNN. A snapshot consists of
+ * the model(.sav), the parameters(.prm) and the incumbent(.sol) and MIP starts(.mst) if the model has them
+ * @author Tim Tjhay (495230tt)
+ */
+public class ModelSnapshot {
+	
+	/**
+	 * Method used to write a model with its parameters and, if available, its incumbent and MIP starts
+	 * @param cplex			The model
+	 * @param directory		The directory the snapshot is written to
+	 * @param name			The name of the snapshot
+	 * @return				The path of the snapshot without an extension
+	 * @throws IloException
+	 */
+	public static String export(IloCplex cplex, String directory, String name) throws IloException {
+		new File(directory).mkdirs();
+		String path = directory + "//" + name;
+		
+		cplex.exportModel(path + ".sav");
+		cplex.writeParam(path + ".prm");
+		
+		// remove the files of an earlier snapshot with the same name, so they are not read with this model
+		new File(path + ".sol").delete();
+		new File(path + ".mst").delete();
+		if (hasIncumbent(cplex)) {
+			cplex.writeSolution(path + ".sol");
+		}
+		if (cplex.getNMIPStarts() > 0) {
+			cplex.writeMIPStarts(path + ".mst");
+		}
+		return path;
+	}
+	
+	/**
+	 * Method used to read a snapshot into a new model, the incumbent and MIP starts are used as MIP starts
+	 * if the model is a MIP, as cplex does not accept MIP starts for an LP
+	 * @param path		The path of the snapshot without an extension
+	 * @return			The model
+	 * @throws IloException
+	 */
+	public static IloCplex load(String path) throws IloException {
+		IloCplex cplex = new IloCplex();
+		cplex.importModel(path + ".sav");
+		if (new File(path + ".prm").exists()) {
+			cplex.readParam(path + ".prm");
+		}
+		if (cplex.isMIP()) {
+			if (new File(path + ".sol").exists()) {
+				// a solution file has the same format as a file of MIP starts
+				cplex.readMIPStarts(path + ".sol");
+			}
+			if (new File(path + ".mst").exists()) {
+				cplex.readMIPStarts(path + ".mst");
+			}
+		}
+		return cplex;
+	}
+	
+	/**
+	 * Method that returns a name for an image that is the same every run
+	 * @param image		The image
+	 * @return			The SHA-256 hash of the image in hexadecimal
+	 */
+	public static String hash(double[] image) {
+		return BoundCache.hash(Arrays.toString(image).getBytes());
+	}
+	
+	/**
+	 * Method that returns if a model was solved and has a feasible solution
+	 * @param cplex		The model
+	 * @return			If the model has an incumbent
+	 * @throws IloException
+	 */
+	private static boolean hasIncumbent(IloCplex cplex) throws IloException {
+		try {
+			return cplex.isPrimalFeasible();
+		}
+		catch (IloException e) {
+			// the model has not been solved yet
+			return false;
+		}
+	}
+	
+}
@@ -0,0 +1,296 @@
+import java.util.List;
+
+import ilog.concert.IloException;
+import ilog.concert.IloNumVar;
+import ilog.concert.IloRange;
+import ilog.cplex.IloCplex;
+
+
+/**
+ * Class used to encode the layers of a DNN into a model, the variables are stored
+ * in arrays indexed by the layer and the neuron, so every MILP formulation
+ * encodes the network in the same way
+ * @author Tim Tjhay (495230tt)
+ */
+public class NetworkEncoder {
+	private IloCplex cplex;
+	
+	private DNN dnn;
+	private ReLUFormulation formulation;
+	
+	private IloNumVar[][] xVars;
+	private IloNumVar[][] sVars;
+	private IloNumVar[][] zVars;
+	
+	// the big-M constraints x + xUB*z <= xUB and s - sUB*z <= 0(null if indicator constraints are used)
+	private IloRange[][][] bigMConstr;
+	
+	private IloRange[] defNeuron1;
+	private double[] error1;
+	
+	/**
+	 * Initializes the encoder of a DNN
+	 * @param cplex			The model the DNN is encoded in
+	 * @param dnn			The DNN
+	 * @param formulation	The formulation used for the relation between x, s and z
+	 */
+	public NetworkEncoder(IloCplex cplex, DNN dnn, ReLUFormulation formulation) {
+		this.cplex = cplex;
+		this.dnn = dnn;
+		this.formulation = formulation;
+		
+		int nLayers = dnn.getLayers().length;
+		this.xVars = new IloNumVar[nLayers][];
+		this.sVars = new IloNumVar[nLayers][];
+		this.zVars = new IloNumVar[nLayers][];
+		this.bigMConstr = new IloRange[nLayers][][];
+	}
+	
+	/**
+	 * Method used to create the variables of the layers first to last using the bounds of the layers
+	 * @param first		The index of the first layer
+	 * @param last		The index of the last layer
+	 * @throws IloException
+	 */
+	public void createVariables(int first, int last) throws IloException {
+		Layer[] layers = this.dnn.getLayers();
+		for (int k=first; k <= last; k++) {
+			Layer layer = layers[k];
+			this.xVars[k] = new IloNumVar[layer.getN()];
+			this.sVars[k] = new IloNumVar[layer.getN()];
+			if (k > 0) {
+				this.zVars[k] = new IloNumVar[layer.getN()];
+			}
+			
+			double[] xLB = layer.getLowerBoundsX();
+			double[] xUB = layer.getUpperBoundsX();
+			double[] sLB = layer.getLowerBoundsS();
+			double[] sUB = layer.getUpperBoundsS();
+			
+			for (int i=0; i < layer.getN(); i++) {
+				this.xVars[k][i] = this.cplex.numVar(xLB[i], xUB[i]);
+				this.sVars[k][i] = this.cplex.numVar(sLB[i], sUB[i]);
+				// stable neurons do not get a z variable as the bounds on x and s already fix one of them to 0
+				if (k > 0 && layer.isUnstable(i)) {
+					this.zVars[k][i] = this.cplex.boolVar();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Method used to add the definition of the neurons in the layers first to last
+	 * using the x variables of the previous layer
+	 * @param first		The index of the first layer(at least 1)
+	 * @param last		The index of the last layer
+	 * @throws IloException
+	 */
+	public void addDefNeuron(int first, int last) throws IloException {
+		Layer[] layers = this.dnn.getLayers();
+		RowBuilder rows = new RowBuilder(this.cplex);
+		for (int k=first; k <= last; k++) {
+			for (int j=0; j < layers[k].getN(); j++) {
+				rows.addDefNeuron(layers[k], j, this.xVars[k-1], this.xVars[k][j], this.sVars[k][j]);
+			}
+		}
+	}
+	
+	/**
+	 * Method used to add the definition of the neurons in the first hidden layer when
+	 * every input is multiplied by p and increased by q
+	 * @param p		The constant every input is multiplied by
+	 * @param q		The constant added to every input
+	 * @throws IloException
+	 */
+	public void addDefNeuron1(double[] p, double[] q) throws IloException {
+		Layer layer = this.dnn.getLayers()[1];
+		RowBuilder rows = new RowBuilder(this.cplex);
+		for (int j=0; j < layer.getN(); j++) {
+			rows.addDefNeuron(layer, j, this.xVars[0], p, q, this.xVars[1][j], this.sVars[1][j]);
+		}
+	}
+	
+	/**
+	 * Method used to add the definition of the neurons in the first hidden layer for a fixed
+	 * input that is multiplied by the variables p and increased by the variables q
+	 * @param input		The input of the DNN
+	 * @param p			The variables every input is multiplied by(null if it is not multiplied)
+	 * @param q			The variables added to every input(null if nothing is added)
+	 * @throws IloException
+	 */
+	public void addDefNeuron1(double[] input, IloNumVar[] p, IloNumVar[] q) throws IloException {
+		Layer layer = this.dnn.getLayers()[1];
+		RowBuilder rows = new RowBuilder(this.cplex);
+		for (int j=0; j < layer.getN(); j++) {
+			rows.addDefNeuron(layer, j, input, p, q, this.xVars[1][j], this.sVars[1][j]);
+		}
+	}
+	
+	/**
+	 * Method used to add the definition of the neurons in the first hidden layer without variables
+	 * for the input layer, the input is a constant image plus the deviations d+ - d- that are multiplied 
+	 * by p. The image is folded into the right hand side of these definitions by setInput1
+	 * @param dPlus		The positive deviations of the input
+	 * @param dMinus	The negative deviations of the input
+	 * @param p			The constant the deviations are multiplied by(null if they are not multiplied)
+	 * @throws IloException
+	 */
+	public void addDefNeuron1(IloNumVar[] dPlus, IloNumVar[] dMinus, double[] p) throws IloException {
+		Layer layer = this.dnn.getLayers()[1];
+		RowBuilder rows = new RowBuilder(this.cplex);
+		this.defNeuron1 = new IloRange[layer.getN()];
+		this.error1 = new double[layer.getN()];
+		for (int j=0; j < layer.getN(); j++) {
+			this.defNeuron1[j] = rows.addDefNeuron(layer, j, dPlus, dMinus, p, this.xVars[1][j], this.sVars[1][j]);
+			// the row is as wide as twice the error caused by pruning
+			this.error1[j] = (this.defNeuron1[j].getUB() - this.defNeuron1[j].getLB()) / 2;
+		}
+	}
+	
+	/**
+	 * Method used to fold a constant input into the definitions of the first hidden layer added by
+	 * addDefNeuron1 with deviations, so their right hand side becomes b + w*input
+	 * @param input		The constant input of the first hidden layer
+	 * @throws IloException
+	 */
+	public void setInput1(double[] input) throws IloException {
+		Layer layer = this.dnn.getLayers()[1];
+		for (int j=0; j < layer.getN(); j++) {
+			// use all weights, as the pruned weights are exact for the constant part of the input
+			double rhs = layer.getBias()[j];
+			double[] w_j = layer.getWeights()[j];
+			for (int i=0; i < w_j.length; i++) {
+				rhs += w_j[i] * input[i];
+			}
+			this.defNeuron1[j].setBounds(rhs - this.error1[j], rhs + this.error1[j]);
+		}
+	}
+	
+	/**
+	 * Method used to add the constraints that use z for the layers first to last
+	 * @param first		The index of the first layer(at least 1)
+	 * @param last		The index of the last layer
+	 * @throws IloException
+	 */
+	public void addXSZConstraints(int first, int last) throws IloException {
+		Layer[] layers = this.dnn.getLayers();
+		for (int k=first; k <= last; k++) {
+			double[] xUB = layers[k].getUpperBoundsX();
+			double[] sUB = layers[k].getUpperBoundsS();
+			this.bigMConstr[k] = new IloRange[layers[k].getN()][];
+			for (int j=0; j < layers[k].getN(); j++) {
+				if (this.zVars[k][j] == null) {
+					continue;
+				}
+				this.bigMConstr[k][j] = this.formulation.addConstraints(this.cplex, this.xVars[k][j], this.sVars[k][j], this.zVars[k][j], xUB[j], sUB[j]);
+			}
+		}
+	}
+	
+	/**
+	 * Method used to set the bounds of the x and s variables to the bounds of a copy of the DNN. The z variable 
+	 * of a neuron that is stable in the copy is fixed and the z variables of the other neurons are freed again, 
+	 * so the z variables fixed for a previous copy do not remain fixed. The big-M constraints use the bounds of the copy
+	 * @param boundsDNN		The copy of the DNN containing the bounds
+	 * @throws IloException
+	 */
+	public void setBounds(DNN boundsDNN) throws IloException {
+		Layer[] boundLayers = boundsDNN.getLayers();
+		for (int k=0; k < boundLayers.length; k++) {
+			if (this.xVars[k] == null) {
+				continue;
+			}
+			Layer layer = boundLayers[k];
+			double[] xUB = layer.getUpperBoundsX();
+			double[] sUB = layer.getUpperBoundsS();
+			for (int i=0; i < this.xVars[k].length; i++) {
+				this.xVars[k][i].setLB(layer.getLowerBoundsX()[i]);
+				this.xVars[k][i].setUB(xUB[i]);
+				this.sVars[k][i].setLB(layer.getLowerBoundsS()[i]);
+				this.sVars[k][i].setUB(sUB[i]);
+				
+				if (k == 0 || this.zVars[k][i] == null) {
+					continue;
+				}
+				// z equals 1 when the neuron is inactive
+				IloNumVar z = this.zVars[k][i];
+				if (layer.isStableInactive(i)) {
+					z.setUB(1);
+					z.setLB(1);
+				}
+				else if (layer.isStableActive(i)) {
+					z.setLB(0);
+					z.setUB(0);
+				}
+				else {
+					z.setLB(0);
+					z.setUB(1);
+				}
+				
+				if (this.bigMConstr[k] != null && this.bigMConstr[k][i] != null) {
+					IloRange xConstr = this.bigMConstr[k][i][0];
+					IloRange sConstr = this.bigMConstr[k][i][1];
+					this.cplex.setLinearCoef(xConstr, xUB[i], z);
+					xConstr.setUB(xUB[i]);
+					this.cplex.setLinearCoef(sConstr, -sUB[i], z);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Method used to get the values of the variables of the encoded layers for a MIP start,
+	 * using the inputs of the neurons(before applying the activation function) of a forward pass
+	 * @param y			The inputs of the neurons for every layer, as returned by DNN.forward
+	 * @param vars		The list the variables are added to
+	 * @param values	The list the values are added to
+	 */
+	public void addStartValues(double[][] y, List<IloNumVar> vars, List<Double> values) {
+		for (int k=0; k < this.xVars.length; k++) {
+			if (this.xVars[k] == null) {
+				continue;
+			}
+			for (int j=0; j < this.xVars[k].length; j++) {
+				// the input layer has no activation function, so its s variables are 0
+				double x = k == 0 ? y[k][j] : Math.max(0, y[k][j]);
+				double s = k == 0 ? 0 : Math.max(0, -y[k][j]);
+				vars.add(this.xVars[k][j]);
+				values.add(x);
+				vars.add(this.sVars[k][j]);
+				values.add(s);
+				if (k > 0 && this.zVars[k][j] != null) {
+					vars.add(this.zVars[k][j]);
+					values.add(y[k][j] <= 0 ? 1.0 : 0.0);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Method that returns the x variables of layer k
+	 * @param k		The index of the layer
+	 * @return		The x variables
+	 */
+	public IloNumVar[] getX(int k) {
+		return this.xVars[k];
+	}
+	
+	/**
+	 * Method that returns the s variables of layer k
+	 * @param k		The index of the layer
+	 * @return		The s variables
+	 */
+	public IloNumVar[] getS(int k) {
+		return this.sVars[k];
+	}
+	
+	/**
+	 * Method that returns the z variables of layer k(null for stable neurons)
+	 * @param k		The index of the layer
+	 * @return		The z variables
+	 */
+	public IloNumVar[] getZ(int k) {
+		return this.zVars[k];
+	}
+	
+}
@@ -0,0 +1,172 @@
+/**
+ * Class used to search for adversarial examples without cplex using projected gradient descent over the
+ * weights of a DNN. The found adversarial examples satisfy the constraints of MILPAdversarial, so they can be
+ * used as a start that gives cplex a feasible solution before it starts branching
+ * @author Tim Tjhay (495230tt)
+ */
+public class PGDAttack {
+	private DNN dnn;
+	
+	private int iterations;
+	private double stepSize;
+	
+	/**
+	 * Initializes the attack on a DNN using 100 iterations with steps of 5% of the maximum deviation
+	 * @param dnn		The DNN that is attacked
+	 */
+	public PGDAttack(DNN dnn) {
+		this(dnn, 100, 0.05);
+	}
+	
+	/**
+	 * Initializes the attack on a DNN
+	 * @param dnn			The DNN that is attacked
+	 * @param iterations	The maximum number of gradient steps
+	 * @param stepSize		The size of a step as a fraction of the maximum deviation
+	 */
+	public PGDAttack(DNN dnn, int iterations, double stepSize) {
+		this.dnn = dnn;
+		this.iterations = iterations;
+		this.stepSize = stepSize;
+	}
+	
+	/**
+	 * Method used to search for an adversarial example that is classified as the target digit,
+	 * meaning the activation of the target neuron is at least 20% greater than the activation of the other neurons,
+	 * while every pixel deviates at most the maximum deviation from the image and stays within the bounds of the input layer
+	 * @param input				The original image
+	 * @param targetDigit		The digit that the adversarial example needs to be classified as
+	 * @param maxDeviation		The maximum deviation from the original image
+	 * @return					The adversarial example(null if none was found)
+	 */
+	public double[] attack(double[] input, int targetDigit, double maxDeviation) {
+		// get the box every pixel has to stay in
+		Layer inputLayer = this.dnn.getLayers()[0];
+		double[] lb = new double[input.length];
+		double[] ub = new double[input.length];
+		for (int i=0; i < input.length; i++) {
+			lb[i] = Math.max(inputLayer.getLowerBoundsX()[i], input[i] - maxDeviation);
+			ub[i] = Math.min(inputLayer.getUpperBoundsX()[i], input[i] + maxDeviation);
+		}
+		
+		double step = this.stepSize * maxDeviation;
+		double[] advExmpl = input.clone();
+		for (int it=0; it < this.iterations; it++) {
+			double[][] y = this.dnn.forward(advExmpl);
+			if (isAdversarial(y[this.dnn.getNLayers()], targetDigit)) {
+				return shrink(input, advExmpl, targetDigit);
+			}
+			
+			// take a step against the sign of the gradient and project it back onto the box
+			double[] gradient = getGradient(y, targetDigit);
+			for (int i=0; i < advExmpl.length; i++) {
+				advExmpl[i] -= step * Math.signum(gradient[i]);
+				advExmpl[i] = Math.min(ub[i], Math.max(lb[i], advExmpl[i]));
+			}
+		}
+		
+		double[][] y = this.dnn.forward(advExmpl);
+		if (isAdversarial(y[this.dnn.getNLayers()], targetDigit)) {
+			return shrink(input, advExmpl, targetDigit);
+		}
+		return null;
+	}
+	
+	/**
+	 * Method that returns if the output satisfies the target constraints x_t - 1.2*x_j >= 0 of MILPAdversarial
+	 * @param y_K				The inputs of the neurons in the output layer
+	 * @param targetDigit		The target digit
+	 * @return					If the output is classified as the target digit
+	 */
+	public static boolean isAdversarial(double[] y_K, int targetDigit) {
+		double x_t = Math.max(0, y_K[targetDigit]);
+		for (int j=0; j < y_K.length; j++) {
+			if (j != targetDigit && x_t < 1.2 * Math.max(0, y_K[j])) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Method used to calculate the gradient of the loss 1.2*x_j - y_t with respect to the input,
+	 * where j is the other neuron with the highest activation. The input of the target neuron is
+	 * used instead of its activation, so the gradient does not vanish when the target neuron is inactive
+	 * @param y					The inputs of the neurons of every layer for the current input
+	 * @param targetDigit		The target digit
+	 * @return					The gradient
+	 */
+	private double[] getGradient(double[][] y, int targetDigit) {
+		Layer[] layers = this.dnn.getLayers();
+		int K = this.dnn.getNLayers();
+		
+		// get the other neuron with the highest activation
+		int maxJ = -1;
+		for (int j=0; j < y[K].length; j++) {
+			if (j != targetDigit && y[K][j] > 0 && (maxJ < 0 || y[K][j] > y[K][maxJ])) {
+				maxJ = j;
+			}
+		}
+		
+		// the gradient with respect to the inputs of the output neurons
+		double[] g = new double[y[K].length];
+		g[targetDigit] = -1;
+		if (maxJ >= 0) {
+			g[maxJ] = 1.2;
+		}
+		
+		// go back through the layers
+		for (int k=K; k > 0; k--) {
+			double[][] w = layers[k].getWeights();
+			double[] g_k_1 = new double[w[0].length];
+			for (int j=0; j < g.length; j++) {
+				if (g[j] == 0) {
+					continue;
+				}
+				for (int i=0; i < g_k_1.length; i++) {
+					g_k_1[i] += g[j] * w[j][i];
+				}
+			}
+			// the hidden layers only pass the gradient through active neurons
+			if (k > 1) {
+				for (int i=0; i < g_k_1.length; i++) {
+					if (y[k-1][i] <= 0) {
+						g_k_1[i] = 0;
+					}
+				}
+			}
+			g = g_k_1;
+		}
+		return g;
+	}
+	
+	/**
+	 * Method used to move an adversarial example towards the original image as long as it stays adversarial,
+	 * using bisection on the fraction of the disturbance that is kept, as a smaller disturbance gives a better start
+	 * @param input				The original image
+	 * @param advExmpl			The adversarial example
+	 * @param targetDigit		The target digit
+	 * @return					The adversarial example with the smallest found disturbance
+	 */
+	private double[] shrink(double[] input, double[] advExmpl, int targetDigit) {
+		double[] best = advExmpl;
+		double low = 0;
+		double high = 1;
+		for (int it=0; it < 10; it++) {
+			double mid = (low + high) / 2;
+			double[] candidate = new double[input.length];
+			for (int i=0; i < input.length; i++) {
+				candidate[i] = input[i] + mid * (advExmpl[i] - input[i]);
+			}
+			if (isAdversarial(this.dnn.forward(candidate)[this.dnn.getNLayers()], targetDigit)) {
+				best = candidate;
+				high = mid;
+			}
+			else {
+				low = mid;
+			}
+		}
+		return best;
+	}
+	
+}
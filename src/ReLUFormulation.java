@@ -0,0 +1,69 @@
+import ilog.concert.IloConstraint;
+import ilog.concert.IloException;
+import ilog.concert.IloNumExpr;
+import ilog.concert.IloNumVar;
+import ilog.concert.IloRange;
+import ilog.cplex.IloCplex;
+
+
+/**
+ * Enum used to choose how the relation between x, s and z of a neuron is modelled
+ * @author Tim Tjhay (495230tt)
+ */
+public enum ReLUFormulation {
+	/**
+	 * Use indicator constraints, so the bounds on x and s are only used as variable bounds
+	 */
+	INDICATOR,
+	
+	/**
+	 * Use the big-M constraints x <= xUB*(1-z) and s <= sUB*z, so the bounds
+	 * on x and s also tighten the LP relaxation
+	 */
+	BIG_M,
+	
+	/**
+	 * Use the big-M constraints when both bounds have been tightened and
+	 * the indicator constraints when one of them is still the initial bound
+	 */
+	HYBRID;
+	
+	/**
+	 * Method used to add the constraints that make x equal to 0 if z equals 1
+	 * and s equal to 0 if z equals 0
+	 * @param cplex		The model the constraints are added to
+	 * @param x			The x variable of the neuron
+	 * @param s			The s variable of the neuron
+	 * @param z			The z variable of the neuron
+	 * @param xUB		The upper bound on x
+	 * @param sUB		The upper bound on s
+	 * @return			The big-M constraints on x and s(null if the indicator constraints are used)
+	 * @throws IloException
+	 */
+	public IloRange[] addConstraints(IloCplex cplex, IloNumVar x, IloNumVar s, IloNumVar z, double xUB, double sUB) throws IloException {
+		boolean bigM = this == BIG_M || (this == HYBRID && xUB < Integer.MAX_VALUE && sUB < Integer.MAX_VALUE);
+		if (bigM) {
+			// add the constraint x <= xUB*(1-z) as x + xUB*z <= xUB
+			IloNumExpr xz = cplex.sum(x, cplex.prod(xUB, z));
+			IloRange xConstr = cplex.addLe(xz, xUB);
+			
+			// add the constraint s <= sUB*z as s - sUB*z <= 0
+			IloNumExpr sz = cplex.diff(s, cplex.prod(sUB, z));
+			IloRange sConstr = cplex.addLe(sz, 0);
+			return new IloRange[] {xConstr, sConstr};
+		}
+		else {
+			// add the constraint that x equals 0 if z equals 1
+			IloConstraint zConstr1 = cplex.eq(z, 1);
+			IloConstraint xConstr = cplex.eq(x, 0);
+			cplex.add(cplex.ifThen(zConstr1, xConstr));
+			
+			// add the constraint that s equals 0 if z equals 0
+			IloConstraint zConstr0 = cplex.eq(z, 0);
+			IloConstraint sConstr = cplex.eq(s, 0);
+			cplex.add(cplex.ifThen(zConstr0, sConstr));
+			return null;
+		}
+	}
+	
+}
@@ -0,0 +1,211 @@
+import ilog.concert.IloException;
+import ilog.concert.IloLinearNumExpr;
+import ilog.concert.IloNumVar;
+import ilog.concert.IloRange;
+import ilog.cplex.IloCplex;
+
+
+/**
+ * Class used to add the definitions of neurons to a model as flat linear expressions
+ * over the sparse weights of a layer, instead of nesting a sum for every weight
+ * @author Tim Tjhay (495230tt)
+ */
+public class RowBuilder {
+	private IloCplex cplex;
+	
+	/**
+	 * Initializes the builder using the model the rows are added to
+	 * @param cplex		The model
+	 */
+	public RowBuilder(IloCplex cplex) {
+		this.cplex = cplex;
+	}
+	
+	/**
+	 * Method used to add the definition of neuron j of a layer w*x_k-1 + b = x - s
+	 * as the row x - s - w*x_k-1 = b, only using the nonzero weights. When weights
+	 * were pruned the row becomes b - e <= x - s - w*x_k-1 <= b + e, where e is the 
+	 * maximum error caused by the pruned weights
+	 * @param layer		The layer of the neuron
+	 * @param j			The index of the neuron
+	 * @param x_k_1		The x variables of the previous layer
+	 * @param x			The x variable of the neuron
+	 * @param s			The s variable of the neuron
+	 * @return			The added constraint
+	 * @throws IloException
+	 */
+	public IloRange addDefNeuron(Layer layer, int j, IloNumVar[] x_k_1, IloNumVar x, IloNumVar s) throws IloException {
+		IloLinearNumExpr row = initRow(x, s);
+		int[] columns = layer.getColumns();
+		double[] values = layer.getValues();
+		int[] rowStart = layer.getRowStart();
+		for (int h=rowStart[j]; h < rowStart[j+1]; h++) {
+			row.addTerm(-values[h], x_k_1[columns[h]]);
+		}
+		
+		// the maximum inputs are only needed when weights of the neuron were pruned
+		double error = 0;
+		if (layer.isPruned(j)) {
+			double[] maxInput = new double[x_k_1.length];
+			for (int i=0; i < x_k_1.length; i++) {
+				maxInput[i] = Math.max(Math.abs(x_k_1[i].getLB()), Math.abs(x_k_1[i].getUB()));
+			}
+			error = layer.getPruningError(j, maxInput);
+		}
+		return addRow(row, layer.getBias()[j], error);
+	}
+	
+	/**
+	 * Method used to add the definition of neuron j in the first hidden layer when
+	 * every input is multiplied by p and increased by q, so w*(p*x_0 + q) + b = x - s
+	 * is added as the row x - s - (w*p)*x_0 = b + w*q
+	 * @param layer		The first hidden layer
+	 * @param j			The index of the neuron
+	 * @param x_0		The x variables of the input layer
+	 * @param p			The constant every input is multiplied by
+	 * @param q			The constant added to every input
+	 * @param x			The x variable of the neuron
+	 * @param s			The s variable of the neuron
+	 * @return			The added constraint
+	 * @throws IloException
+	 */
+	public IloRange addDefNeuron(Layer layer, int j, IloNumVar[] x_0, double[] p, double[] q, IloNumVar x, IloNumVar s) throws IloException {
+		IloLinearNumExpr row = initRow(x, s);
+		int[] columns = layer.getColumns();
+		double[] values = layer.getValues();
+		double rhs = layer.getBias()[j];
+		int[] rowStart = layer.getRowStart();
+		for (int h=rowStart[j]; h < rowStart[j+1]; h++) {
+			int i = columns[h];
+			row.addTerm(-values[h] * p[i], x_0[i]);
+			rhs += values[h] * q[i];
+		}
+		
+		// the maximum inputs are only needed when weights of the neuron were pruned
+		double error = 0;
+		if (layer.isPruned(j)) {
+			double[] maxInput = new double[x_0.length];
+			for (int i=0; i < x_0.length; i++) {
+				maxInput[i] = Math.max(Math.abs(p[i] * x_0[i].getLB() + q[i]), Math.abs(p[i] * x_0[i].getUB() + q[i]));
+			}
+			error = layer.getPruningError(j, maxInput);
+		}
+		return addRow(row, rhs, error);
+	}
+	
+	/**
+	 * Method used to add the definition of neuron j in the first hidden layer for a fixed
+	 * input when the input is multiplied by the variables p and increased by the variables q,
+	 * so w*(p*input + q) + b = x - s is added as the row x - s - (w*input)*p - w*q = b
+	 * @param layer		The first hidden layer
+	 * @param j			The index of the neuron
+	 * @param input		The input of the DNN
+	 * @param p			The variables every input is multiplied by(null if it is not multiplied)
+	 * @param q			The variables added to every input(null if nothing is added)
+	 * @param x			The x variable of the neuron
+	 * @param s			The s variable of the neuron
+	 * @return			The added constraint
+	 * @throws IloException
+	 */
+	public IloRange addDefNeuron(Layer layer, int j, double[] input, IloNumVar[] p, IloNumVar[] q, IloNumVar x, IloNumVar s) throws IloException {
+		IloLinearNumExpr row = initRow(x, s);
+		int[] columns = layer.getColumns();
+		double[] values = layer.getValues();
+		double rhs = layer.getBias()[j];
+		int[] rowStart = layer.getRowStart();
+		for (int h=rowStart[j]; h < rowStart[j+1]; h++) {
+			int i = columns[h];
+			if (p != null) {
+				row.addTerm(-values[h] * input[i], p[i]);
+			}
+			else {
+				rhs += values[h] * input[i];
+			}
+			if (q != null) {
+				row.addTerm(-values[h], q[i]);
+			}
+		}
+		
+		// the maximum inputs are only needed when weights of the neuron were pruned
+		double error = 0;
+		if (layer.isPruned(j)) {
+			double[] maxInput = new double[input.length];
+			for (int i=0; i < input.length; i++) {
+				double maxP = p == null ? 1 : Math.max(Math.abs(p[i].getLB()), Math.abs(p[i].getUB()));
+				double maxQ = q == null ? 0 : Math.max(Math.abs(q[i].getLB()), Math.abs(q[i].getUB()));
+				maxInput[i] = Math.abs(input[i]) * maxP + maxQ;
+			}
+			error = layer.getPruningError(j, maxInput);
+		}
+		return addRow(row, rhs, error);
+	}
+	
+	/**
+	 * Method used to add the definition of neuron j in the first hidden layer when the input is a constant 
+	 * image plus the deviations d+ - d-, which are multiplied by p. The constant part of the input is 
+	 * moved to the right hand side by setting the bounds of the row, so the row x - s - (w*p)*d+ + (w*p)*d- = b is added
+	 * @param layer		The first hidden layer
+	 * @param j			The index of the neuron
+	 * @param dPlus		The positive deviations of the input
+	 * @param dMinus	The negative deviations of the input
+	 * @param p			The constant every input is multiplied by(null if it is not multiplied)
+	 * @param x			The x variable of the neuron
+	 * @param s			The s variable of the neuron
+	 * @return			The added constraint
+	 * @throws IloException
+	 */
+	public IloRange addDefNeuron(Layer layer, int j, IloNumVar[] dPlus, IloNumVar[] dMinus, double[] p, IloNumVar x, IloNumVar s) throws IloException {
+		IloLinearNumExpr row = initRow(x, s);
+		int[] columns = layer.getColumns();
+		double[] values = layer.getValues();
+		int[] rowStart = layer.getRowStart();
+		for (int h=rowStart[j]; h < rowStart[j+1]; h++) {
+			int i = columns[h];
+			double coef = p == null ? values[h] : values[h] * p[i];
+			row.addTerm(-coef, dPlus[i]);
+			row.addTerm(coef, dMinus[i]);
+		}
+		
+		// the maximum inputs are only needed when weights of the neuron were pruned
+		double error = 0;
+		if (layer.isPruned(j)) {
+			double[] maxInput = new double[dPlus.length];
+			for (int i=0; i < dPlus.length; i++) {
+				double p_i = p == null ? 1 : Math.abs(p[i]);
+				maxInput[i] = p_i * Math.max(dPlus[i].getUB(), dMinus[i].getUB());
+			}
+			error = layer.getPruningError(j, maxInput);
+		}
+		return addRow(row, layer.getBias()[j], error);
+	}
+	
+	/**
+	 * Method used to add a row that equals the right hand side up to the error
+	 * @param row		The left hand side of the row
+	 * @param rhs		The right hand side of the row
+	 * @param error		The maximum error caused by pruning
+	 * @return			The added constraint
+	 * @throws IloException
+	 */
+	private IloRange addRow(IloLinearNumExpr row, double rhs, double error) throws IloException {
+		if (error == 0) {
+			return this.cplex.addEq(row, rhs);
+		}
+		return this.cplex.addRange(rhs - error, row, rhs + error);
+	}
+	
+	/**
+	 * Method used to start a row with x - s
+	 * @param x		The x variable of the neuron
+	 * @param s		The s variable of the neuron
+	 * @return		The expression x - s
+	 * @throws IloException
+	 */
+	private IloLinearNumExpr initRow(IloNumVar x, IloNumVar s) throws IloException {
+		IloLinearNumExpr row = this.cplex.linearNumExpr();
+		row.addTerm(1, x);
+		row.addTerm(-1, s);
+		return row;
+	}
+	
+}
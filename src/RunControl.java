@@ -0,0 +1,109 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import ilog.concert.IloException;
+import ilog.cplex.IloCplex;
+
+
+/**
+ * Class used to stop a whole run, every model registers its cplex object so the running solves
+ * can be aborted when the deadline of the run is reached or the run is cancelled. An aborted solve stops
+ * with its best solution so far, after which the drivers stop starting new solves and write the statistics they have
+ * @author Tim Tjhay (495230tt)
+ */
+public class RunControl {
+	private static Map<IloCplex, IloCplex.Aborter> aborters = new HashMap<>();
+	private static volatile boolean cancelled = false;
+	
+	private static Timer timer;
+	
+	/**
+	 * Method used to register a model, so its solves are aborted when the run is stopped
+	 * @param cplex		The model
+	 * @throws IloException
+	 */
+	public static synchronized void register(IloCplex cplex) throws IloException {
+		IloCplex.Aborter aborter = new IloCplex.Aborter();
+		cplex.use(aborter);
+		aborters.put(cplex, aborter);
+		
+		// a model that is created after the run was stopped does not start solving
+		if (cancelled) {
+			aborter.abort();
+		}
+	}
+	
+	/**
+	 * Method used to remove a model before it is cleaned up
+	 * @param cplex		The model
+	 */
+	public static synchronized void unregister(IloCplex cplex) {
+		aborters.remove(cplex);
+	}
+	
+	/**
+	 * Method used to stop the run, the running solves are aborted and the solves that are started afterwards stop immediately
+	 */
+	public static synchronized void cancel() {
+		if (!cancelled) {
+			System.out.println("Stopping the run");
+		}
+		cancelled = true;
+		for (IloCplex.Aborter aborter: aborters.values()) {
+			aborter.abort();
+		}
+	}
+	
+	/**
+	 * Method that returns if the run was stopped, so no new experiments should be started
+	 * @return	If the run was stopped
+	 */
+	public static boolean isStopped() {
+		return cancelled;
+	}
+	
+	/**
+	 * Method used to stop the run after a number of seconds
+	 * @param seconds	The number of seconds the run may take(0 removes the deadline)
+	 */
+	public static synchronized void setDeadline(double seconds) {
+		if (timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+		if (seconds > 0) {
+			timer = new Timer("deadline", true);
+			timer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					// TimerTask has its own cancel method
+					RunControl.cancel();
+				}
+			}, (long) (seconds * 1000));
+		}
+	}
+	
+	/**
+	 * Method used to stop the run when the program is interrupted, the program waits at most
+	 * a minute until the thread that calls this method, the driver, has written the statistics it has
+	 */
+	public static void installShutdownHook() {
+		Thread driver = Thread.currentThread();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			// the driver already finished if the program ends normally or because of an exception
+			if (!driver.isAlive()) {
+				return;
+			}
+			cancel();
+			try {
+				driver.join(60000);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}));
+	}
+	
+}
@@ -0,0 +1,106 @@
+/**
+ * Class used to calculate bounds on the neurons by substituting linear relaxations
+ * of the activation functions back through the layers until the input layer is reached
+ * @author Tim Tjhay (495230tt)
+ */
+public class SymbolicBounds {
+	private Layer[] layers;
+	
+	/**
+	 * Initializes the class using the layers of a DNN
+	 * @param layers	The layers of the DNN
+	 */
+	public SymbolicBounds(Layer[] layers) {
+		this.layers = layers;
+	}
+	
+	/**
+	 * Method used to calculate bounds on the input of the neurons in layer k
+	 * (before applying the activation function), this uses the bounds of layers 1 to k-1
+	 * to relax their activation functions and the bounds of the input layer
+	 * @param k		The index of the layer
+	 * @return		The lower bounds in the first row and upper bounds in the second row
+	 */
+	public double[][] calculateBounds(int k) {
+		Layer layer = this.layers[k];
+		double[][] bounds = new double[2][layer.getN()];
+		
+		// for every neuron the input is written as a*x_k-1 + c, starting with the weights and bias
+		for (int j=0; j < layer.getN(); j++) {
+			bounds[0][j] = substitute(k, layer.getWeights()[j], layer.getBias()[j], false);
+			bounds[1][j] = substitute(k, layer.getWeights()[j], layer.getBias()[j], true);
+		}
+		return bounds;
+	}
+	
+	/**
+	 * Method used to bound a linear function of the x variables of layer k-1 by
+	 * substituting the relaxation of every layer until the input layer is reached
+	 * @param k		The index of the layer after the layer the function is defined on
+	 * @param w		The coefficients of the x variables of layer k-1
+	 * @param b		The constant of the function
+	 * @param upper	If the upper bound(true) or the lower bound(false) should be calculated
+	 * @return		The bound on the function
+	 */
+	private double substitute(int k, double[] w, double b, boolean upper) {
+		double[] a = w.clone();
+		double c = b;
+		
+		// for all hidden layers from layer k-1 back to the first hidden layer:
+		for (int m=k-1; m > 0; m--) {
+			Layer layer_m = this.layers[m];
+			double[][] w_m = layer_m.getWeights();
+			double[] b_m = layer_m.getBias();
+			double[] a_m_1 = new double[w_m[0].length];
+			
+			for (int i=0; i < a.length; i++) {
+				if (a[i] == 0 || layer_m.isStableInactive(i)) {
+					// the neuron does not contribute
+					continue;
+				}
+				
+				// get the slope and intercept of the relaxation x <= slope*y + intercept (or >=)
+				// where y is the input of the neuron, an upper bound needs the upper relaxation
+				// for positive coefficients and the lower relaxation for negative coefficients
+				double slope = 1;
+				double intercept = 0;
+				if (!layer_m.isStableActive(i)) {
+					double l = -layer_m.getUpperBoundsS()[i];
+					double u = layer_m.getUpperBoundsX()[i];
+					if ((a[i] > 0) == upper) {
+						slope = u / (u - l);
+						intercept = -slope * l;
+					}
+					else if (u < -l) {
+						slope = 0;
+					}
+				}
+				
+				// substitute the relaxation and the definition of the neuron
+				double coef = a[i] * slope;
+				c += a[i] * intercept + coef * b_m[i];
+				if (coef != 0) {
+					for (int h=0; h < a_m_1.length; h++) {
+						a_m_1[h] += coef * w_m[i][h];
+					}
+				}
+			}
+			a = a_m_1;
+		}
+		
+		// bound the function using the bounds of the input layer
+		double[] xLB = this.layers[0].getLowerBoundsX();
+		double[] xUB = this.layers[0].getUpperBoundsX();
+		double bound = c;
+		for (int i=0; i < a.length; i++) {
+			if ((a[i] >= 0) == upper) {
+				bound += a[i] * xUB[i];
+			}
+			else {
+				bound += a[i] * xLB[i];
+			}
+		}
+		return bound;
+	}
+	
+}